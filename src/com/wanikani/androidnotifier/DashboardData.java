@@ -549,6 +549,25 @@ public class DashboardData {
 		od.merge (dd.od);
 	}
 
+	/**
+	 * Constructor. Builds a minimal study queue out of its values, 
+	 * e.g. to script the input of the notifier simulator in tools/src.
+	 * @param reviewsAvailable the number of reviews available now
+	 * @param nextReviewDate the next review date (may be <tt>null</tt>)
+	 * @param reviewsAvailableNextHour the reviews available in the next hour
+	 * @param reviewsAvailableNextDay the reviews available in the next day
+	 */
+	DashboardData (int reviewsAvailable, Date nextReviewDate, 
+				   int reviewsAvailableNextHour, int reviewsAvailableNextDay)
+	{
+		od = new OptionalData ();
+		
+		this.reviewsAvailable = reviewsAvailable;
+		this.nextReviewDate = nextReviewDate;
+		this.reviewsAvailableNextHour = reviewsAvailableNextHour;
+		this.reviewsAvailableNextDay = reviewsAvailableNextDay;
+	}
+	
 	/**
 	 * A constructor to be used when information retrieval fails 
 	 * @param e the exception that occurred
@@ -111,6 +111,7 @@ public class DatabaseFixup {
 					if (!change)
 						break;
 				}
+				hdb.checkSummary ();
 			
 				prefs.edit ().putBoolean (SHOULD_RUN, false).commit ();
 			} finally {
@@ -34,6 +34,7 @@ import android.widget.TextView;
 
 import com.wanikani.androidnotifier.db.FontDatabase;
 import com.wanikani.androidnotifier.db.FontDatabase.FontBox;
+import com.wanikani.androidnotifier.db.ItemsDatabase;
 import com.wanikani.wklib.Connection;
 import com.wanikani.wklib.Item;
 import com.wanikani.wklib.Kanji;
@@ -1271,7 +1272,7 @@ public class ItemsFragment extends Fragment implements Tab, Filter.Callback {
 		nof = new NoFilter (this);
 		levelf = new LevelFilter (this);
 		criticalf = new CriticalFilter (this);
-		toxicf = new ToxicFilter (this);
+		toxicf = new ToxicFilter (this, new ItemsDatabase (main));
 		unlockf = new UnlockFilter (this);
 		currentFilter = levelf;
 		
@@ -37,8 +37,10 @@ import android.view.MenuItem;
 import android.view.View;
 import android.widget.TextView;
 
+import com.wanikani.androidnotifier.db.HistoryDatabase;
 import com.wanikani.androidnotifier.db.ItemsDatabase;
 import com.wanikani.wklib.AuthenticationException;
+import com.wanikani.wklib.BoundedItemsCache;
 import com.wanikani.wklib.Connection;
 import com.wanikani.wklib.Item;
 import com.wanikani.wklib.ItemLibrary;
@@ -517,6 +519,12 @@ public class MainActivity extends FragmentActivity implements Runnable {
 	/** The object that implements the WaniKani API client */
 	private Connection conn;
 	
+	/** The items database, kept open as long as this activity lives */
+	private ItemsDatabase idb;
+	
+	/** The history database, kept open as long as this activity lives */
+	private HistoryDatabase hdb;
+	
 	/** The information displayed on the dashboard. It is built
 	 * from the objects returned by the WaniKani API*/
 	private DashboardData dd;
@@ -604,7 +612,11 @@ public class MainActivity extends FragmentActivity implements Runnable {
 
 	    /* Must be placed first, because fragments need this early */
 	    conn = SettingsActivity.newConnection (this);
-		conn.cache = new ItemsDatabase (this).getCache ();
+	    idb = new ItemsDatabase (this);
+	    idb.hold ();
+	    hdb = new HistoryDatabase (this);
+	    hdb.hold ();
+		conn.cache = new BoundedItemsCache (idb.getCache ());
 
 	    if (dsf == null)
 	    	dsf = new DashboardStatsFragment ();
@@ -817,7 +829,7 @@ public class MainActivity extends FragmentActivity implements Runnable {
 	
 	/**
 	 * Called when the application pauses.
-	 * Update the @link #visible flag.
+	 * Update the @link #visible flag, and saves the byte meters.
 	 */
 	@Override
 	public void onPause ()
@@ -825,6 +837,7 @@ public class MainActivity extends FragmentActivity implements Runnable {
 		super.onPause ();
 				
 		visible = false;
+		MeterSpec.flushAsync ();
 	}
 
 	/**
@@ -840,6 +853,8 @@ public class MainActivity extends FragmentActivity implements Runnable {
 		unregisterIntents ();		
 		alarm.stopAlarm ();
 		mh.unregister (this);
+		idb.unhold ();
+		hdb.unhold ();
 	}
 
 	/**
@@ -912,7 +927,7 @@ public class MainActivity extends FragmentActivity implements Runnable {
 	private void updateCredentials ()
 	{
 		conn = SettingsActivity.newConnection (this);
-		conn.cache = new ItemsDatabase (this).getCache ();
+		conn.cache = new BoundedItemsCache (idb.getCache ());
 		
 		refresh (Tab.RefreshType.FULL_IMPLICIT);
 	}
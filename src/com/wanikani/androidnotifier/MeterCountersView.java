@@ -44,7 +44,11 @@ public class MeterCountersView extends LinearLayout {
 	
 	private LayoutInflater inflater;
 	
-	private Binding mobile, wifi, unknown;
+	private Binding mobile, wifi, unknown, decoded, saved;
+	
+	private View hrdiv;
+	
+	private TextView hrtw;
 	
 	private View tdiv;
 	
@@ -63,6 +67,10 @@ public class MeterCountersView extends LinearLayout {
 		mobile = new Binding (R.id.mc_d_mobile, R.id.mc_mobile);
 		wifi = new Binding (R.id.mc_d_wifi, R.id.mc_wifi);
 		unknown = new Binding (R.id.mc_d_unknown, R.id.mc_unknown);
+		decoded = new Binding (R.id.mc_d_decoded, R.id.mc_decoded);
+		saved = new Binding (R.id.mc_d_saved, R.id.mc_saved);
+		hrdiv = findViewById (R.id.mc_d_hitrate);
+		hrtw = (TextView) findViewById (R.id.mc_hitrate);
 		
 		a = ctxt.obtainStyledAttributes (attrs, R.styleable.PieChart);
 		
@@ -83,6 +91,7 @@ public class MeterCountersView extends LinearLayout {
 	public void setData (MeterSpec.Counter data)
 	{
 		boolean empty;
+		int hr;
 		
 		empty = data.total () == 0;
 		if (tdiv != null) {
@@ -93,5 +102,11 @@ public class MeterCountersView extends LinearLayout {
 		mobile.update (data.at, data.mobile, empty);
 		wifi.update (data.at, data.wifi, false);
 		unknown.update (data.at, data.unknown, false);
+		decoded.update (data.at, data.decoded, false);
+		saved.update (data.at, data.saved, false);
+		
+		hr = data.hitRate ();
+		hrdiv.setVisibility (hr >= 0 ? View.VISIBLE : View.GONE);
+		hrtw.setText (hr + "%");
 	}
 }
@@ -1,6 +1,11 @@
 package com.wanikani.androidnotifier;
 
 import java.util.Date;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import android.content.Context;
 import android.content.SharedPreferences;
@@ -30,6 +35,17 @@ import com.wanikani.wklib.Connection.Meter;
  *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+/**
+ * The byte meters. Each network call updates the meter of its {@link T type}
+ * and, on {@link #sync()}, its amounts are added to an in-memory accumulator
+ * holding a counter for each type and connectivity tag.
+ * The accumulator is merged into the preferences file in the background:
+ * {@link #FLUSH_DELAY} milliseconds after the first unsaved sync, as soon
+ * as {@link #FLUSH_BYTES} bytes are pending, or when {@link #flush(Context)}
+ * is called explicitly (e.g. when the service or the activity stop).
+ * Since only deltas are merged, and the file is reloaded before each merge,
+ * counters stay correct even if more than one process updates them.
+ */
 public class MeterSpec implements Connection.Meter {
 
 	public enum T {
@@ -157,6 +173,14 @@ public class MeterSpec implements Connection.Meter {
 
 		public long unknown;
 		
+		public long decoded;
+		
+		public long hits;
+		
+		public long misses;
+		
+		public long saved;
+		
 		public Counter (AmountType at, long mobile, long wifi, long unknown)
 		{
 			this.at = at;
@@ -169,6 +193,15 @@ public class MeterSpec implements Connection.Meter {
 		{
 			return mobile + wifi + unknown;
 		}
+		
+		/**
+		 * The percentage of item levels that were served by the items cache.
+		 * @return the hit rate, or -1 if no level has been requested
+		 */
+		public int hitRate ()
+		{
+			return hits + misses > 0 ? (int) (hits * 100 / (hits + misses)) : -1;
+		}
 	}
 		
 	private static final String PREFIX = MeterSpec.class.toString ();
@@ -183,20 +216,78 @@ public class MeterSpec implements Connection.Meter {
 	
 	private int count;
 	
+	private int decoded;
+	
+	private int hits;
+	
+	private int misses;
+	
+	private int saved;
+	
 	private static final String CTAG_UNKNOWN = "u."; 
 
 	private static final String CTAG_MOBILE = "m.";
 	
 	private static final String CTAG_WIFI = "w.";
 	
+	/* Not a real connectivity tag: this is the payload size after decompression */
+	private static final String CTAG_DECODED = "d.";
+	
+	/* Items cache statistics */
+	private static final String CTAG_HITS = "h.";
+	
+	private static final String CTAG_MISSES = "x.";
+	
+	private static final String CTAG_SAVED = "s.";
+	
 	private static final String PREFERENCES_FILE = "meters.xml";
 	
+	/* Connectivity tags, in accumulator order */
+	private static final String CTAGS [] = { 
+		CTAG_UNKNOWN, CTAG_MOBILE, CTAG_WIFI, CTAG_DECODED, CTAG_HITS, CTAG_MISSES, CTAG_SAVED 
+	};
+	
+	private static final int I_UNKNOWN = 0;
+	
+	private static final int I_MOBILE = 1;
+	
+	private static final int I_WIFI = 2;
+	
+	private static final int I_DECODED = 3;
+	
+	private static final int I_HITS = 4;
+	
+	private static final int I_MISSES = 5;
+	
+	private static final int I_SAVED = 6;
+	
+	/* Merge delay, in milliseconds */
+	private static final long FLUSH_DELAY = 30 * 1000;
+	
+	/* Number of pending bytes that causes an immediate merge */
+	private static final long FLUSH_BYTES = 64 * 1024;
+	
 	private static Object mutex = new Object ();
+	
+	/* Amounts not yet merged into the preferences, indexed by type and tag */
+	private static AtomicLongArray pending = 
+			new AtomicLongArray (T.values ().length * CTAGS.length);
+	
+	/* Bytes not yet merged into the preferences */
+	private static AtomicLong backlog = new AtomicLong ();
+	
+	/* Set if a merge is scheduled */
+	private static AtomicBoolean scheduled = new AtomicBoolean ();
+	
+	private static Timer timer;
+	
+	private static Context actxt;
 
 	private MeterSpec (Context ctxt, T type)
 	{
 		this.type = type;
 		
+		actxt = ctxt.getApplicationContext ();
 		prefs = prefs (ctxt);
 		cmgr = (ConnectivityManager) ctxt.getSystemService (Context.CONNECTIVITY_SERVICE);
 	}
@@ -216,6 +307,22 @@ public class MeterSpec implements Connection.Meter {
 		count += bytes;
 	}
 	
+	public void decoded (int bytes)
+	{
+		decoded += bytes;
+	}
+	
+	public void hit (int bytes)
+	{
+		hits++;
+		saved += bytes;
+	}
+	
+	public void miss ()
+	{
+		misses++;
+	}
+	
 	public static Date getLastReset (SharedPreferences prefs)
 	{
 		synchronized (mutex) {
@@ -228,20 +335,113 @@ public class MeterSpec implements Connection.Meter {
 	
 	public void sync ()
 	{
+		int base;
+		
+		base = index (type, 0);
+		add (base + tag (), count);
+		add (base + I_DECODED, decoded);
+		add (base + I_HITS, hits);
+		add (base + I_MISSES, misses);
+		add (base + I_SAVED, saved);
+
+		if (backlog.addAndGet (count) >= FLUSH_BYTES)
+			schedule (0);
+		else if (count > 0 || hits > 0 || misses > 0)
+			schedule (FLUSH_DELAY);
+		
+		count = 0;
+		decoded = 0;
+		hits = 0;
+		misses = 0;
+		saved = 0;
+	}
+	
+	private static void add (int i, int value)
+	{
+		if (value != 0)
+			pending.addAndGet (i, value);
+	}
+	
+	/**
+	 * Schedules a merge of the accumulator into the preferences file.
+	 * If a merge is already scheduled, and the delay is not zero, 
+	 * this method does nothing.
+	 * @param delay the delay, in milliseconds
+	 */
+	private static synchronized void schedule (long delay)
+	{
+		TimerTask task;
+		
+		if (!scheduled.compareAndSet (false, true) && delay > 0)
+			return;
+		
+		task = new TimerTask () {
+			public void run ()
+			{
+				scheduled.set (false);
+				flush (actxt);
+			}
+		};
+		
+		if (timer == null)
+			timer = new Timer ("MeterSpec", true);
+		timer.schedule (task, delay);
+	}
+	
+	/**
+	 * Merges the accumulator into the preferences file. This method
+	 * performs disk I/O, so it should not be called on the UI thread.
+	 * @param ctxt the context
+	 */
+	public static void flush (Context ctxt)
+	{
+		SharedPreferences prefs;
 		String key;
+		long value;
+		boolean dirty;
 		Editor e;
+		int i;
 		
-		key = getKey (type, connectivity ());
+		if (ctxt == null)
+			return;
 		
 		synchronized (mutex) {
+			/* Reload, in case another process changed the file */
+			prefs = prefs (ctxt);
 			e = prefs.edit ();
-			if (!prefs.contains (START_TIME))
-				e.putLong (START_TIME, System.currentTimeMillis ());
+			dirty = false;
+			for (T type : T.values ())
+				for (i = 0; i < CTAGS.length; i++) {
+					value = pending.getAndSet (index (type, i), 0);
+					if (value != 0) {
+						key = getKey (type, CTAGS [i]);
+						e.putLong (key, prefs.getLong (key, 0) + value);
+						dirty = true;
+					}
+				}
+			backlog.set (0);
 			
-			e.putLong (key, prefs.getLong (key, 0) + count);
-			e.commit ();
+			if (dirty) {
+				if (!prefs.contains (START_TIME))
+					e.putLong (START_TIME, System.currentTimeMillis ());
+				e.commit ();
+			}
 		}
-		count = 0;
+	}
+	
+	/**
+	 * Schedules an immediate merge of the accumulator into the preferences file.
+	 * Unlike {@link #flush(Context)}, this method can be called on the UI thread.
+	 */
+	public static void flushAsync ()
+	{
+		if (backlog.get () > 0 || scheduled.get ())
+			schedule (0);
+	}
+	
+	private static int index (T type, int tag)
+	{
+		return type.ordinal () * CTAGS.length + tag;
 	}
 	
 	private static String getKey (T type, String connectivity)
@@ -249,20 +449,20 @@ public class MeterSpec implements Connection.Meter {
 		return PREFIX + type.name () + "." + connectivity;
 	}
 	
-	private String connectivity ()
+	private int tag ()
 	{
 		NetworkInfo info;
 		
 		if (cmgr == null)
-			return CTAG_UNKNOWN;
+			return I_UNKNOWN;
 		
 		info = cmgr.getActiveNetworkInfo ();
 		if (info == null)
-			return CTAG_UNKNOWN; 		
+			return I_UNKNOWN; 		
 		else if (info.getType () == ConnectivityManager.TYPE_MOBILE)
-			return CTAG_MOBILE;
+			return I_MOBILE;
 		else
-			return CTAG_WIFI;
+			return I_WIFI;
 	}
 
 	private static void addValue (SharedPreferences prefs, T t, Counter counter)
@@ -275,11 +475,21 @@ public class MeterSpec implements Connection.Meter {
 			for (i = 0; i < components.length; i++)
 				addValue (prefs, components [i], counter);			
 		} else {
-			counter.mobile += prefs.getLong (getKey (t, CTAG_MOBILE), 0);
-			counter.wifi += prefs.getLong (getKey (t, CTAG_WIFI), 0);
-			counter.unknown += prefs.getLong (getKey (t, CTAG_UNKNOWN), 0);
+			counter.mobile += getValue (prefs, t, I_MOBILE);
+			counter.wifi += getValue (prefs, t, I_WIFI);
+			counter.unknown += getValue (prefs, t, I_UNKNOWN);
+			counter.decoded += getValue (prefs, t, I_DECODED);
+			counter.hits += getValue (prefs, t, I_HITS);
+			counter.misses += getValue (prefs, t, I_MISSES);
+			counter.saved += getValue (prefs, t, I_SAVED);
 		}
 	}
+	
+	/* Includes the amounts that are still in the accumulator */
+	private static long getValue (SharedPreferences prefs, T t, int i)
+	{
+		return prefs.getLong (getKey (t, CTAGS [i]), 0) + pending.get (index (t, i));
+	}
 		
 	private Counter getCounter (AmountType at)
 	{
@@ -296,6 +506,8 @@ public class MeterSpec implements Connection.Meter {
 		ans.mobile *= ratio;
 		ans.wifi *= ratio;
 		ans.unknown *= ratio;
+		ans.decoded *= ratio;
+		ans.saved *= ratio;
 		
 		return ans;
 	}
@@ -303,14 +515,23 @@ public class MeterSpec implements Connection.Meter {
 	public static void reset (Context ctxt)
 	{
 		Editor e;
+		int i;
 		
 		synchronized (mutex) {
+			for (i = 0; i < pending.length (); i++)
+				pending.set (i, 0);
+			backlog.set (0);
+			
 			e = prefs (ctxt).edit ();
 			e.putLong (START_TIME, System.currentTimeMillis ());
 			for (T type : T.values ()) {
 				e.putLong (getKey (type, CTAG_MOBILE), 0);
 				e.putLong (getKey (type, CTAG_WIFI), 0);
 				e.putLong (getKey (type, CTAG_UNKNOWN), 0);
+				e.putLong (getKey (type, CTAG_DECODED), 0);
+				e.putLong (getKey (type, CTAG_HITS), 0);
+				e.putLong (getKey (type, CTAG_MISSES), 0);
+				e.putLong (getKey (type, CTAG_SAVED), 0);
 			}
 			e.commit ();
 		}
@@ -17,6 +17,9 @@ import android.widget.Button;
 import android.widget.Spinner;
 import android.widget.TextView;
 
+import com.wanikani.wklib.BoundedItemsCache;
+import com.wanikani.wklib.CallStats;
+
 /* 
  *  Copyright (c) 2013 Alberto Cuda
  *
@@ -42,6 +45,8 @@ public class MetersActivity extends Activity {
 		public void onClick (View view)
 		{
 			MeterSpec.reset (MetersActivity.this);
+			CallStats.SHARED.reset ();
+			BoundedItemsCache.COUNTERS.reset ();
 			refresh ();
 		}
 		
@@ -71,6 +76,8 @@ public class MetersActivity extends Activity {
 
 	private Button resetw;
 	
+	private TextView rqw;
+	
 	private Map<MeterSpec.T, MeterCountersView> cviews;
 	
 	public MetersActivity ()
@@ -94,6 +101,8 @@ public class MetersActivity extends Activity {
 		resetw = (Button) findViewById (R.id.me_reset);
 		resetw.setOnClickListener (new ResetListener ());
 		
+		rqw = (TextView) findViewById (R.id.me_requests);
+		
 		addView (MeterSpec.T.SERVICE, R.id.me_service_total);
 		addView (MeterSpec.T.NOTIFY_TIMEOUT, R.id.me_notify_timeout);
 		addView (MeterSpec.T.NOTIFY_CHANGE_CONNECTIVITY, R.id.me_change_connectivity);
@@ -154,6 +163,79 @@ public class MetersActivity extends Activity {
 		
 		for (Map.Entry<MeterSpec.T, MeterCountersView> e : cviews.entrySet ())
 			e.getValue ().setData (e.getKey ().getCounter (this, at));
+		
+		refreshRequests ();
+	}
+	
+	/**
+	 * Shows the request statistics of each resource, and how many
+	 * levels were served by the items cache.
+	 */
+	protected void refreshRequests ()
+	{
+		BoundedItemsCache.Counters ic;
+		StringBuffer sb;
+		
+		sb = new StringBuffer ();
+		for (CallStats.Resource r : CallStats.SHARED.snapshot ()) {
+			if (r.isEmpty ())
+				continue;
+			
+			if (sb.length () > 0)
+				sb.append ("\n\n");
+			sb.append (getString (R.string.fmt_me_requests, r.name, 
+								  r.requests, r.notModified, r.failures));
+			sb.append ('\n').append (getString (R.string.fmt_me_timings, 
+												 percentiles (r.connect, 1, "ms"),
+												 percentiles (r.ttfb, 1, "ms"),
+												 percentiles (r.download, 1, "ms"),
+												 percentiles (r.parse, 1, "ms")));
+			sb.append ('\n').append (getString (R.string.fmt_me_sizes, 
+												 percentiles (r.size, 1024, "KiB"),
+												 percentiles (r.items, 1, "")));
+		}
+		
+		ic = BoundedItemsCache.COUNTERS;
+		if (!ic.isEmpty ()) {
+			if (sb.length () > 0)
+				sb.append ("\n\n");
+			sb.append (getString (R.string.fmt_me_items_cache, ic.getHits (), 
+								  ic.getMisses (), ic.getEvictions ()));
+		}
+		
+		if (sb.length () == 0)
+			sb.append (getString (R.string.tag_me_no_requests));
+		
+		rqw.setText (sb.toString ());
+	}
+	
+	/**
+	 * Formats the median and the 90th percentile of a histogram.
+	 * Since buckets are fixed, we can only show their upper bounds.
+	 * @param h the histogram
+	 * @param div a divisor to be applied to the bounds
+	 * @param unit the unit
+	 * @return a textual representation
+	 */
+	private static String percentiles (CallStats.Histogram h, int div, String unit)
+	{
+		if (h.getCount () == 0)
+			return "-";
+		
+		return bound (h, h.getPercentile (50), div) + " / " + 
+			   bound (h, h.getPercentile (90), div) + " " + unit;
+	}
+	
+	private static String bound (CallStats.Histogram h, long value, int div)
+	{
+		long bounds [];
+		
+		if (value != Long.MAX_VALUE)
+			return "<" + value / div;
+		
+		bounds = h.getBounds ();
+		
+		return ">" + bounds [bounds.length - 1] / div;
 	}
 
 }
@@ -3,6 +3,11 @@ package com.wanikani.androidnotifier;
 import java.io.IOException;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import android.app.AlarmManager;
 import android.app.IntentService;
@@ -22,6 +27,7 @@ import android.support.v4.app.NotificationCompat;
 
 import com.wanikani.androidnotifier.NotifierStateMachine.Event;
 import com.wanikani.androidnotifier.db.HistoryDatabase;
+import com.wanikani.androidnotifier.db.ItemsDatabase;
 import com.wanikani.wklib.Connection;
 import com.wanikani.wklib.SRSDistribution;
 import com.wanikani.wklib.StudyQueue;
@@ -101,6 +107,88 @@ public class NotificationService
 	    }
 	}
 	
+	/**
+	 * The network side of a single intent. Daily jobs and the state machine
+	 * share the same connection (and thus the same user information), 
+	 * and when both need to run, their requests are issued concurrently, 
+	 * so the radio is turned on only once.
+	 */
+	private class Fetch {
+		
+		/// The connection
+		Connection conn;
+		
+		/// The executor running background requests. May be <tt>null</tt>
+		ExecutorService executor;
+		
+		/// The pending study queue request. May be <tt>null</tt>
+		Future<StudyQueue> sq;
+		
+		/**
+		 * Constructor.
+		 */
+		public Fetch ()
+		{
+			conn = SettingsActivity.newConnection (NotificationService.this);
+		}
+		
+		/**
+		 * Starts retrieving the study queue in the background. 
+		 * 	@param meter the meter
+		 */
+		public void prefetchStudyQueue (final Connection.Meter meter)
+		{
+			executor = Executors.newSingleThreadExecutor ();
+			sq = executor.submit (new Callable<StudyQueue> () {
+				public StudyQueue call ()
+					throws IOException
+				{
+					return conn.getStudyQueue (meter);
+				}
+			});
+		}
+		
+		/**
+		 * Returns the study queue. If it was prefetched, this method waits
+		 * for the pending request, otherwise it issues a new one.
+		 * 	@param meter the meter
+		 * 	@return the study queue
+		 */
+		public StudyQueue getStudyQueue (Connection.Meter meter)
+			throws IOException
+		{
+			Future<StudyQueue> f;
+			Throwable t;
+			
+			if (sq == null)
+				return conn.getStudyQueue (meter);
+			
+			f = sq;
+			sq = null;
+			try {
+				return f.get ();
+			} catch (ExecutionException e) {
+				t = e.getCause ();
+				if (t instanceof IOException)
+					throw (IOException) t;
+				else if (t instanceof RuntimeException)
+					throw (RuntimeException) t;
+				throw new IOException (t.getMessage ());
+			} catch (InterruptedException e) {
+				throw new IOException ("Interrupted");
+			}
+		}
+		
+		/**
+		 * Releases the background thread.
+		 */
+		public void close ()
+		{
+			if (executor != null)
+				executor.shutdownNow ();
+		}
+	}
+	
 	/// Local prefix
 	private static final String PREFIX = "com.wanikani.wanikaninotifier.NotificationService.";
 	
@@ -172,6 +260,10 @@ public class NotificationService
 	/** The cron retry interval. Default is half an hour */
 	private static final long CRON_RETRY = 1800 * 1000;
 	
+	/** The network calls of the intent being handled. Created on demand
+	 *  by {@link #getFetch()}, so intents that don't fetch open no connection */
+	private Fetch fetch;
+	
 	/**
 	 * Constructor. 
 	 */
@@ -185,9 +277,9 @@ public class NotificationService
 	 * Before doing this, we check whether notifications are enabled; if they
 	 * are not, this methods returns. This provides a simple method to
 	 * stop notifications without explicitly canceling pending alarms.
-	 * @see #bootCompleted(Intent)
-	 * @see #connectivityChange(Intent)
-	 * @see #alarm(Intent)
+	 * @see #bootCompleted(Intent, Event)
+	 * @see #connectivityChange(Intent, Event)
+	 * @see #alarm(Intent, Event)
 	 * 	@param intent the intent
 	 */
 	@Override
@@ -195,37 +287,76 @@ public class NotificationService
 	{
 		String action;
 		boolean enabled;
+		Event event;
 		
 		enabled = SettingsActivity.getEnabled (this);
 		action = intent.getAction ();
 		
-		/* ACTION_HIDE_NOTIFICATION and ACTION_(LESSONS_)TAP are special, 
-		 * because we must call it even if notifications
-		 * are disabled */
-		if (action.equals (ACTION_HIDE_NOTIFICATION)) {
-			hideNotification (intent, enabled);
-			return;
-		} else if (action.equals (ACTION_TAP)) {
-			tap (intent, enabled);
-			return;
-		} else if (action.equals (ACTION_LESSONS_TAP)) {
-			lessonsTap (intent);
-			return;
+		try {
+			/* ACTION_HIDE_NOTIFICATION and ACTION_(LESSONS_)TAP are special, 
+			 * because we must call it even if notifications
+			 * are disabled */
+			if (action.equals (ACTION_HIDE_NOTIFICATION)) {
+				hideNotification (intent, enabled);
+				return;
+			} else if (action.equals (ACTION_TAP)) {
+				tap (intent, enabled);
+				return;
+			} else if (action.equals (ACTION_LESSONS_TAP)) {
+				lessonsTap (intent);
+				return;
+			}
+			
+			/* The event the state machine will be fed with, or null if it
+			 * won't need the network. Daily jobs use it to prefetch the study queue */
+			if (!enabled)
+				event = null;
+			else if (action.equals (ACTION_BOOT_COMPLETED))
+				event = Event.E_INITIAL;
+			else if (action.equals (ACTION_CONNECTIVITY_CHANGE))
+				event = Event.E_UNSOLICITED;
+			else if (action.equals (ACTION_ALARM))
+				event = Event.E_SOLICITED;
+			else if (action.equals (ACTION_NEW_DATA) && !intent.hasExtra (KEY_DD))
+				event = Event.E_UNSOLICITED;
+			else
+				event = null;
+			
+			cronDaily (enabled, event);
+			
+			if (!enabled)
+				return;
+			
+			if (action.equals (ACTION_BOOT_COMPLETED))
+				bootCompleted (intent, event);
+			else if (action.equals (ACTION_CONNECTIVITY_CHANGE))
+				connectivityChange (intent, event);
+			else if (action.equals (ACTION_ALARM))
+				alarm (intent, event);
+			else if (action.equals (ACTION_NEW_DATA))
+				newData (intent, event);
+		} finally {
+			if (fetch != null) {
+				fetch.close ();
+				fetch = null;
+			}
+			
+			/* The process may be killed as soon as the service stops */
+			MeterSpec.flush (this);
 		}
+	}
+	
+	/**
+	 * Returns the network calls of the intent being handled, opening
+	 * the connection the first time it is needed.
+	 * 	@return the fetch object
+	 */
+	private Fetch getFetch ()
+	{
+		if (fetch == null)
+			fetch = new Fetch ();
 		
-		cronDaily (enabled);
-		
-		if (!enabled)
-			return;
-		
-		if (action.equals (ACTION_BOOT_COMPLETED))
-			bootCompleted (intent);
-		else if (action.equals (ACTION_CONNECTIVITY_CHANGE))
-			connectivityChange (intent);
-		else if (action.equals (ACTION_ALARM))
-			alarm (intent);
-		else if (action.equals (ACTION_NEW_DATA))
-			newData (intent);
+		return fetch;
 	}
 	
 	/**
@@ -234,9 +365,12 @@ public class NotificationService
 	 * however this class already handles alarms and gets boot notifications, so 
 	 * it's quite natural to put it here. In addition, since alarms are somehow a precious
 	 * resource, we merge the FSM alarsm with the cron alarms.
+	 * For the same reason, if the state machine is going to be fed after the 
+	 * daily jobs, the study queue is retrieved while they run.
 	 * @param enabled if notifications are enabled 
+	 * @param event the event the state machine will be fed with, or <tt>null</tt>
 	 */
-	private void cronDaily (boolean enabled)
+	private void cronDaily (boolean enabled, Event event)
 	{
 		SharedPreferences prefs;
 		long next, now;
@@ -247,6 +381,9 @@ public class NotificationService
 
 		next = prefs.getLong (PREFS_CRON_NEXT, normalize (now));
 		if (now >= next) {
+			if (event != null)
+				getFetch ().prefetchStudyQueue (event.meter ().get (this));
+			
 			ok = false;
 			try {				
 				ok = runDailyJobs (prefs);
@@ -292,16 +429,15 @@ public class NotificationService
 	{
 		SRSDistribution srs;
 		UserInformation ui;
-		Connection conn;
 		Connection.Meter meter;
 		int vday, lvday, nvdays;
 		
 		try {
 			meter = MeterSpec.T.NOTIFY_DAILY_JOBS.get (this);
-			conn = SettingsActivity.newConnection (this);
 			
-			srs = conn.getSRSDistribution (meter);
-			ui = conn.getUserInformation (meter);
+			srs = getFetch ().conn.getSRSDistribution (meter);
+			/* This call does not cause network traffic */
+			ui = getFetch ().conn.getUserInformation (meter);
 			
 			HistoryDatabase.insert (this, ui, srs);
 			
@@ -331,14 +467,15 @@ public class NotificationService
 	 * or when notifications are enabled. This creates an empty state machine,
 	 * feeding it with the current data.
 	 * @param intent the intent
+	 * @param event the event to feed the state machine with
 	 */
-	protected void bootCompleted (Intent intent)
+	protected void bootCompleted (Intent intent, Event event)
 	{
 		NotifierStateMachine fsm;
 		
 		fsm = new NotifierStateMachine (this);
 		
-		feed (fsm, NotifierStateMachine.Event.E_INITIAL);
+		feed (fsm, event);
 	}
 	
 	/**
@@ -348,14 +485,15 @@ public class NotificationService
 	 * If we can't contact the server, this event is simply ignored
 	 * keeping the state machine in the pending intent.
 	 * @param intent the intent
+	 * @param event the event to feed the state machine with
 	 */
-	protected void connectivityChange (Intent intent)
+	protected void connectivityChange (Intent intent, Event event)
 	{
 		NotifierStateMachine fsm;
 		
 		fsm = new NotifierStateMachine (this);
 		
-		feed (fsm, NotifierStateMachine.Event.E_UNSOLICITED);
+		feed (fsm, event);
 	}
 	
 	/**
@@ -414,8 +552,10 @@ public class NotificationService
 	 * a timeout expires. This deserializes the current state machine,
 	 * that was saved into the intent by @link #schedule(NotifierStateMachine, Date). 
 	 * @param intent the intent
+	 * @param event the event to feed the state machine with, or <tt>null</tt>
+	 * 	if the intent carries the dashboard data
 	 */
-	protected void newData (Intent intent)
+	protected void newData (Intent intent, Event event)
 	{
 		NotifierStateMachine fsm;
 		DashboardData dd;
@@ -426,7 +566,7 @@ public class NotificationService
 			fsm.next (NotifierStateMachine.Event.E_UNSOLICITED, 
 					  SettingsActivity.getReviewThreshold (this), dd);
 		} else
-			feed (fsm, NotifierStateMachine.Event.E_UNSOLICITED);
+			feed (fsm, event);
 	}
 	
 	/**
@@ -436,8 +576,9 @@ public class NotificationService
 	 * @link DashboardData object, so we deserialize it and pretend that
 	 * an alarm has gone off. 
 	 * @param intent the intent
+	 * @param event the event to feed the state machine with
 	 */
-	protected void alarm (Intent intent)
+	protected void alarm (Intent intent, Event event)
 	{
 		NotifierStateMachine fsm;
 		Bundle b;
@@ -452,7 +593,7 @@ public class NotificationService
 		} else
 			fsm = new NotifierStateMachine (this);
 		
-		feed (fsm, NotifierStateMachine.Event.E_SOLICITED);
+		feed (fsm, event);
 	}
 
 	/**
@@ -468,17 +609,17 @@ public class NotificationService
 	{
 		UserInformation ui;
 		Connection.Meter meter;
-		Connection conn;
+		ReviewForecast forecast;
 		DashboardData dd;
 		StudyQueue sq;
 		
 		meter = event.meter ().get (this);
+		forecast = null;
 		
-		conn = SettingsActivity.newConnection (this);
 		try {
-			sq = conn.getStudyQueue (meter);
+			sq = getFetch ().getStudyQueue (meter);
 			/* This call does not cause network traffic */
-			ui = conn.getUserInformation (meter);
+			ui = getFetch ().conn.getUserInformation (meter);
 			dd = new DashboardData (ui, sq);
 			if (SettingsActivity.getLessonsEnabled (this))
 				showLessons (dd.lessonsAvailable);
@@ -486,6 +627,7 @@ public class NotificationService
 				showLessons (0);
 			dd.serialize (PreferenceManager.getDefaultSharedPreferences(this), 
 					  	  DashboardData.Source.NOTIFICATION_SERVICE);
+			forecast = getForecast ();
 		} catch (IOException e) {
 			if (event == Event.E_UNSOLICITED)
 				return;
@@ -493,9 +635,32 @@ public class NotificationService
 			dd = new DashboardData (e);
 		}
 		
-		fsm.next (event, SettingsActivity.getReviewThreshold (this), dd);
+		fsm.next (event, SettingsActivity.getReviewThreshold (this), dd, forecast);
 	}	
 	
+	/**
+	 * Builds the review forecast out of the items cache. This
+	 * causes no network traffic.
+	 *	@return the forecast, or <tt>null</tt> if the cache can't be read
+	 */
+	private ReviewForecast getForecast ()
+	{
+		ItemsDatabase idb;
+		Date now;
+		
+		now = new Date ();
+		idb = new ItemsDatabase (this);
+		idb.hold ();
+		try {
+			return new ReviewForecast (idb.getAvailableTimes 
+						(now, new Date (now.getTime () + ReviewForecast.HORIZON)));
+		} catch (SQLException e) {
+			return null;
+		} finally {
+			idb.unhold ();
+		}
+	}
+	
 	/**
 	 * Shows the lessons icon.
 	 *  @param lessons the number of available lessons
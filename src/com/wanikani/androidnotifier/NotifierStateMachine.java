@@ -87,6 +87,10 @@ public class NotifierStateMachine {
 	 *  queue (this means clock disalignment between the terminal and WaniKani */
 	private static int T_INT_CLOCK_COMPENSATION = 3;
 	
+	/** Extra delay (in milliseconds) added to scheduled review times, to
+	 *  compensate small differences between terminal and server clock */
+	private static long T_TOLERANCE = 10000;
+	
 	/**
 	 * This enum conveys additional info to @link {@link NotifierStateMachine#next(DashboardData)},
 	 * in order to let the state machine know what event triggered the state machine.
@@ -134,12 +138,19 @@ public class NotifierStateMachine {
 			public void enter (NotifierStateMachine fsm, Event event, 
 								State prev, DashboardData ldd, DashboardData cdd) 
 				{
+					Date date;
+				
 					fsm.ifc.hideNotification ();
 					if (cdd.nextReviewDate == null)
 						fsm.schedule (T_NO_REVIEWS);
-					else if (cdd.nextReviewDate.after (new Date ()))
-						fsm.schedule (cdd.nextReviewDate, 10000);
-					else
+					else if (cdd.nextReviewDate.after (new Date (fsm.now ()))) {
+						/* If the threshold is higher than one, we may 
+						 * sleep even longer */
+						date = fsm.predict (cdd);
+						if (date == null || date.before (cdd.nextReviewDate))
+							date = cdd.nextReviewDate;
+						fsm.schedule (date, T_TOLERANCE);
+					} else
 						fsm.schedule (T_INT_CLOCK_COMPENSATION); 
 				}
 		},
@@ -152,8 +163,13 @@ public class NotifierStateMachine {
 			public void enter (NotifierStateMachine fsm, Event event, 
 							   State prev, DashboardData ldd, DashboardData cdd) 
 				{
+					Date date;
+					
 					fsm.ifc.hideNotification ();
-					if (prev != this)
+					date = fsm.predict (cdd);
+					if (date != null)
+						fsm.schedule (date, T_TOLERANCE);
+					else if (prev != this)
 						fsm.schedule (NotifierStateMachine.T_INT_WAITING_FOR_REVIEWS);
 					else
 						fsm.schedule (NotifierStateMachine.T_INT_WAITING_FOR_REVIEWS,
@@ -248,6 +264,12 @@ public class NotifierStateMachine {
 	
 	/// Last timeout interval (needed for exponential backoff)
 	int ldelta;
+	
+	/// The number of reviews needed to show a notification
+	int threshold;
+	
+	/// The review forecast, or <tt>null</tt> if not available
+	ReviewForecast forecast;
 
 	/// Bundle data prefix
 	private static final String PREFIX = "com.wanikani.wanikaninotifier.NotifierStateMachine.";
@@ -311,10 +333,27 @@ public class NotifierStateMachine {
 	 *	@param dd the study queue
 	 */
 	public void next (Event event, int threshold, DashboardData dd)
+	{
+		next (event, threshold, dd, null);
+	}
+	
+	/**
+	 * Called when a timeout (or network connectivity change) event
+	 * is triggered <i>and</i> study queue data is available.
+	 * If a forecast is available, the state machine uses it 
+	 * to sleep till the threshold is reached, instead of polling.
+	 *  @param event the kind of event
+	 *  @param threshold the number of reviews needed to show a notification 
+	 *	@param dd the study queue
+	 *  @param forecast the review forecast (may be <tt>null</tt>)
+	 */
+	public void next (Event event, int threshold, DashboardData dd, ReviewForecast forecast)
 	{
 		State cstate, llstate;
 		DashboardData lldd;
 		
+		this.threshold = threshold;
+		this.forecast = forecast;
 		try {
 			dd.wail ();
 			if (dd.reviewsAvailable >= threshold)
@@ -369,10 +408,48 @@ public class NotifierStateMachine {
 				ldelta = cap;
 		}
 	
-		now = System.currentTimeMillis ();
+		now = now ();
 		ifc.schedule (this, new Date (now + ldelta * 60 * 1000));
 	}
 
+	/**
+	 * Returns the current time. All the scheduling decisions are
+	 * relative to this value, so the simulator in tools/src can replace 
+	 * the clock.
+	 *	@return the current time, in milliseconds
+	 */
+	long now ()
+	{
+		return System.currentTimeMillis ();
+	}
+	
+	/**
+	 * Predicts when the number of pending reviews will reach the threshold.
+	 * The forecast is checked only against the next day, so the prediction
+	 * never goes further: if the threshold is reached later, we wake up
+	 * at the end of the day and check again.
+	 *	@param dd the study queue
+	 *	@return the predicted time, or <tt>null</tt> if there is no forecast,
+	 *		or it disagrees with the study queue
+	 */
+	Date predict (DashboardData dd)
+	{
+		long now, limit;
+		Date ans;
+		
+		now = now ();
+		if (forecast == null || !forecast.isConsistent (dd, now))
+			return null;
+		
+		ans = forecast.predict (now, dd.reviewsAvailable, threshold);
+		if (ans == null || ans.getTime () <= now)
+			return null;
+		
+		limit = now + ReviewForecast.DAY;
+		
+		return ans.getTime () > limit ? new Date (limit) : ans;
+	}
+	
 	/**
 	 * Schedule a timeout at a given point in time.
 	 *	@param date when to trigger it
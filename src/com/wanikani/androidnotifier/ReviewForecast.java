@@ -0,0 +1,125 @@
+package com.wanikani.androidnotifier;
+
+import java.util.Arrays;
+import java.util.Date;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * A timeline of the moments when new reviews become available,
+ * built from the availability dates of the cached items.
+ * The state machine uses it to predict when the number of pending
+ * reviews will reach the notification threshold, so it can sleep till
+ * then instead of polling.
+ * Since the items cache may be incomplete or stale, a forecast
+ * should be used only if {@link #isConsistent(DashboardData, long)}
+ * says it agrees with the study queue.
+ */
+public class ReviewForecast {
+
+	/// How far in the future the timeline should extend
+	public static final long HORIZON = 7 * 24 * 3600 * 1000L;
+
+	/// The interval covered by {@link DashboardData#reviewsAvailableNextDay}.
+	/// This is the only part of the timeline {@link #isConsistent(DashboardData, long)}
+	/// can check, so predictions should not reach further
+	public static final long DAY = 24 * 3600 * 1000L;
+
+	/// Availability times, in ascending order
+	private long times [];
+
+	/**
+	 * Constructor.
+	 * @param times the availability times, in milliseconds. This array
+	 * 	is sorted in place and retained
+	 */
+	public ReviewForecast (long times [])
+	{
+		this.times = times;
+
+		Arrays.sort (times);
+	}
+
+	/**
+	 * Returns the index of the first review that becomes available
+	 * after a given time.
+	 * @param t the time
+	 * @return the index
+	 */
+	private int after (long t)
+	{
+		int i;
+
+		i = Arrays.binarySearch (times, t);
+		if (i < 0)
+			return -i - 1;
+
+		/* Skip duplicates */
+		while (i < times.length && times [i] <= t)
+			i++;
+
+		return i;
+	}
+
+	/**
+	 * Returns the number of reviews that become available in an interval
+	 * @param from the start of the interval (exclusive)
+	 * @param to the end of the interval (inclusive)
+	 * @return the number of reviews
+	 */
+	public int count (long from, long to)
+	{
+		return Math.max (after (to) - after (from), 0);
+	}
+
+	/**
+	 * Tells whether this forecast agrees with the study queue. This is
+	 * true if the timeline contains at least as many reviews in the next
+	 * 24 hours as the study queue reports. If it contains fewer, some items
+	 * are missing from the cache and the prediction would be late.
+	 * @param dd the study queue
+	 * @param now the current time
+	 * @return <tt>true</tt> if the forecast can be used
+	 */
+	public boolean isConsistent (DashboardData dd, long now)
+	{
+		/* Depending on the API version, this may or may not include
+		 * the reviews that are already available, so be conservative */
+		return count (now, now + DAY) >= dd.reviewsAvailableNextDay - dd.reviewsAvailable;
+	}
+
+	/**
+	 * Predicts when the number of pending reviews will reach a threshold.
+	 * @param now the current time
+	 * @param available the number of reviews available now
+	 * @param threshold the threshold
+	 * @return the predicted time, or <tt>null</tt> if the threshold
+	 * 	is not reached within the timeline
+	 */
+	public Date predict (long now, int available, int threshold)
+	{
+		int i;
+
+		if (available >= threshold)
+			return new Date (now);
+
+		i = after (now) + threshold - available - 1;
+
+		return i < times.length ? new Date (times [i]) : null;
+	}
+}
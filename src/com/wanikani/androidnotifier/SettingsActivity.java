@@ -1,5 +1,7 @@
 package com.wanikani.androidnotifier;
 
+import java.io.File;
+
 import android.app.AlertDialog;
 import android.app.Dialog;
 import android.content.Context;
@@ -14,8 +16,10 @@ import android.preference.PreferenceActivity;
 import android.preference.PreferenceManager;
 import android.support.v4.content.LocalBroadcastManager;
 
+import com.wanikani.wklib.CallStats;
 import com.wanikani.wklib.Config;
 import com.wanikani.wklib.Connection;
+import com.wanikani.wklib.ResponseCache;
 import com.wanikani.wklib.UserLogin;
 
 /* 
@@ -65,6 +69,9 @@ public class SettingsActivity
 		LOCAL_IME, NATIVE
 	};
 	
+	/** Where cached API responses are stored, relative to the cache dir */
+	private static final String RESPONSE_CACHE_DIR = "responses";
+	
 	/** Preferences enabled key. Must match preferences.xml */
 	private static final String KEY_PREF_ENABLED = "pref_enabled";
 	/** Notify threshold */
@@ -446,11 +453,20 @@ public class SettingsActivity
 	public static Connection newConnection (Context ctxt)
 	{
 		SharedPreferences prefs;
+		Connection conn;
+		Config config;
 		
 		prefs = prefs (ctxt);
 		
-		return new Connection (getLogin (prefs), 
-							   getTLS (prefs) ? Config.DEFAULT_TLS : Config.DEFAULT_TCP);
+		config = new Config (getTLS (prefs) ? Config.DEFAULT_TLS : Config.DEFAULT_TCP);
+		/* The service and the activity often refresh at the same time */
+		config.shareFlights = true;
+		conn = new Connection (getLogin (prefs), config);
+		/* Shared between the notification service and the activity */
+		conn.responses = new ResponseCache (new File (ctxt.getCacheDir (), RESPONSE_CACHE_DIR));
+		conn.instr = CallStats.SHARED;
+		
+		return conn;
 	}
 	
 	private static UserLogin getLogin (SharedPreferences prefs)
@@ -27,6 +27,7 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
+import com.wanikani.androidnotifier.db.FactsStore;
 import com.wanikani.androidnotifier.db.HistoryDatabase;
 import com.wanikani.androidnotifier.db.HistoryDatabaseCache;
 import com.wanikani.androidnotifier.db.HistoryDatabaseCache.PageSegment;
@@ -344,15 +345,12 @@ public class StatsFragment extends Fragment implements Tab {
 		@Override
 		protected void fillPartialSegment (Pager.Segment segment, PageSegment pseg)
 		{
-			int i;
-			
 			segment.series = partialSeries;
-			segment.data = new float [2][pseg.srsl.size ()];
-			i = 0;
-			for (SRSDistribution srs : pseg.srsl) {
-				segment.data [0][i] = srs.apprentice.total;
-				segment.data [1][i++] = srs.burned.total;
-			}
+			segment.data = new float [][] {
+				pseg.getColumn (FactsStore.APPRENTICE, FactsStore.TOTAL),
+				pseg.getColumn (FactsStore.BURNED, FactsStore.TOTAL)
+			};
+			segment.offset = pseg.getOffset ();
 		}
 
 		/**
@@ -363,19 +361,15 @@ public class StatsFragment extends Fragment implements Tab {
 		 */
 		protected void fillSegment (Pager.Segment segment, PageSegment pseg)
 		{
-			int i;
-			
 			segment.series = completeSeries;
-			segment.data = new float [5][pseg.srsl.size ()];
-			i = 0;
-			for (SRSDistribution srs : pseg.srsl) {
-				segment.data [0][i] = srs.apprentice.total;
-				segment.data [1][i] = srs.guru.total;
-				segment.data [2][i] = srs.master.total;
-				segment.data [3][i] = srs.enlighten.total;
-				segment.data [4][i] = srs.burned.total;
-				i++;
-			}			
+			segment.data = new float [][] {
+				pseg.getColumn (FactsStore.APPRENTICE, FactsStore.TOTAL),
+				pseg.getColumn (FactsStore.GURU, FactsStore.TOTAL),
+				pseg.getColumn (FactsStore.MASTER, FactsStore.TOTAL),
+				pseg.getColumn (FactsStore.ENLIGHTEN, FactsStore.TOTAL),
+				pseg.getColumn (FactsStore.BURNED, FactsStore.TOTAL)
+			};
+			segment.offset = pseg.getOffset ();			
 		}
 		
 	}
@@ -451,15 +445,12 @@ public class StatsFragment extends Fragment implements Tab {
 		 */
 		protected void fillPartialSegment (Pager.Segment segment, PageSegment pseg)
 		{
-			int i;
-			
 			segment.series = partialSeries;
-			segment.data = new float [2][pseg.srsl.size ()];
-			i = 0;
-			for (SRSDistribution srs : pseg.srsl) {
-				segment.data [0][i] = srs.apprentice.kanji;
-				segment.data [1][i++] = srs.burned.kanji;
-			}
+			segment.data = new float [][] {
+				pseg.getColumn (FactsStore.APPRENTICE, FactsStore.KANJI),
+				pseg.getColumn (FactsStore.BURNED, FactsStore.KANJI)
+			};
+			segment.offset = pseg.getOffset ();
 		}
 
 		/**
@@ -470,19 +461,15 @@ public class StatsFragment extends Fragment implements Tab {
 		 */
 		protected void fillSegment (Pager.Segment segment, PageSegment pseg)
 		{
-			int i;
-			
 			segment.series = completeSeries;
-			segment.data = new float [5][pseg.srsl.size ()];
-			i = 0;
-			for (SRSDistribution srs : pseg.srsl) {
-				segment.data [0][i] = srs.apprentice.kanji;
-				segment.data [1][i] = srs.guru.kanji;
-				segment.data [2][i] = srs.master.kanji;
-				segment.data [3][i] = srs.enlighten.kanji;
-				segment.data [4][i] = srs.burned.kanji;
-				i++;
-			}			
+			segment.data = new float [][] {
+				pseg.getColumn (FactsStore.APPRENTICE, FactsStore.KANJI),
+				pseg.getColumn (FactsStore.GURU, FactsStore.KANJI),
+				pseg.getColumn (FactsStore.MASTER, FactsStore.KANJI),
+				pseg.getColumn (FactsStore.ENLIGHTEN, FactsStore.KANJI),
+				pseg.getColumn (FactsStore.BURNED, FactsStore.KANJI)
+			};
+			segment.offset = pseg.getOffset ();			
 		}
 		
 	}
@@ -558,15 +545,12 @@ public class StatsFragment extends Fragment implements Tab {
 		 */
 		protected void fillPartialSegment (Pager.Segment segment, PageSegment pseg)
 		{
-			int i;
-			
 			segment.series = partialSeries;
-			segment.data = new float [2][pseg.srsl.size ()];
-			i = 0;
-			for (SRSDistribution srs : pseg.srsl) {
-				segment.data [0][i] = srs.apprentice.vocabulary;
-				segment.data [1][i++] = srs.burned.vocabulary;
-			}
+			segment.data = new float [][] {
+				pseg.getColumn (FactsStore.APPRENTICE, FactsStore.VOCAB),
+				pseg.getColumn (FactsStore.BURNED, FactsStore.VOCAB)
+			};
+			segment.offset = pseg.getOffset ();
 		}
 
 		/**
@@ -577,19 +561,15 @@ public class StatsFragment extends Fragment implements Tab {
 		 */
 		protected void fillSegment (Pager.Segment segment, PageSegment pseg)
 		{
-			int i;
-			
 			segment.series = completeSeries;
-			segment.data = new float [5][pseg.srsl.size ()];
-			i = 0;
-			for (SRSDistribution srs : pseg.srsl) {
-				segment.data [0][i] = srs.apprentice.vocabulary;
-				segment.data [1][i] = srs.guru.vocabulary;
-				segment.data [2][i] = srs.master.vocabulary;
-				segment.data [3][i] = srs.enlighten.vocabulary;
-				segment.data [4][i] = srs.burned.vocabulary;
-				i++;
-			}			
+			segment.data = new float [][] {
+				pseg.getColumn (FactsStore.APPRENTICE, FactsStore.VOCAB),
+				pseg.getColumn (FactsStore.GURU, FactsStore.VOCAB),
+				pseg.getColumn (FactsStore.MASTER, FactsStore.VOCAB),
+				pseg.getColumn (FactsStore.ENLIGHTEN, FactsStore.VOCAB),
+				pseg.getColumn (FactsStore.BURNED, FactsStore.VOCAB)
+			};
+			segment.offset = pseg.getOffset ();			
 		}
 		
 	}
@@ -4,14 +4,18 @@ import java.io.IOException;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Vector;
 
 import android.os.AsyncTask;
 
+import com.wanikani.androidnotifier.db.ItemsDatabase;
 import com.wanikani.wklib.Connection;
 import com.wanikani.wklib.Item;
 import com.wanikani.wklib.ItemLibrary;
+import com.wanikani.wklib.ItemsCacheInterface;
 import com.wanikani.wklib.Radical;
+import com.wanikani.wklib.Vocabulary;
 
 /* 
  *  Copyright (c) 2013 Alberto Cuda
@@ -71,44 +75,48 @@ public class ToxicFilter implements Filter {
 		@Override
 		protected Boolean doInBackground (Void... v)
 		{
-			ItemLibrary<Item> lib;
-			boolean ok;
+			int levels [];
 			
-			ok = true;
-			lib = new ItemLibrary<Item> ();
 			try {
-				lib.add (conn.getRadicals (meter));
-				Collections.sort (lib.list, Item.SortByToxicity.INSTANCE);
-				if (lib.list.size () > ITEMS)
-					lib.list = lib.list.subList (0, ITEMS);
+				levels = conn.getAllLevels (meter);
+				allItems.addAll (getToxic (levels));
 			} catch (IOException e) {
-				ok = false;
+				return false;
 			}
 			
-			lib = new ItemLibrary<Item> ();
-			try {
-				lib.add (conn.getKanji (meter));
-				Collections.sort (lib.list, Item.SortByToxicity.INSTANCE);
-				if (lib.list.size () > ITEMS)
-					lib.list = lib.list.subList (0, ITEMS);
-			} catch (IOException e) {
-				ok = false;
-			}
+			return true;
+		}	
+		
+		/**
+		 * Returns the most toxic vocabulary items. If the cache is fresh,
+		 * the query is run by the database, otherwise we refresh 
+		 * all the levels and sort them. Freshness is checked on the inventory
+		 * only, so that the items are not loaded unless they are needed. 
+		 * @param levels all the levels
+		 * @return the items
+		 * @throws IOException if the cache could not be refreshed 
+		 */
+		private List<? extends Item> getToxic (int levels [])
+			throws IOException
+		{
+			Map<Integer, ItemsCacheInterface.LevelData<Vocabulary>> map;
+			ItemsDatabase.ItemsTable<Vocabulary> table;
+			ItemLibrary<Vocabulary> lib;
 			
-			lib = new ItemLibrary<Item> ();
-			try {
-				lib.add (conn.getVocabulary (meter));
-				Collections.sort (lib.list, Item.SortByToxicity.INSTANCE);
-				if (lib.list.size () > ITEMS)
-					lib.list = lib.list.subList (0, ITEMS);
-			} catch (IOException e) {
-				ok = false;
+			if (idb != null) {
+				table = idb.getTable (Item.Type.VOCABULARY);
+				map = ItemsCacheInterface.LevelData.createMap (levels);
+				table.getInventory (map);
+				if (Connection.isFresh (map))
+					return table.getToxic (levels, ITEMS);
 			}
 			
-			allItems = lib.list;
-
-			return ok;
-		}	
+			lib = new ItemLibrary<Vocabulary> ();
+			lib.add (conn.getVocabulary (meter, levels));
+			Collections.sort (lib.list, Item.SortByToxicity.INSTANCE);
+			
+			return lib.list.size () > ITEMS ? lib.list.subList (0, ITEMS) : lib.list;
+		}
 		
 		/**
 		 * Informs the GUI that no more items are expected
@@ -139,16 +147,21 @@ public class ToxicFilter implements Filter {
 	/// The task that performs the real job, or <code>null</code> if idle
 	Task task;
 	
+	/// The items database, used to query fresh data, or <code>null</code>
+	ItemsDatabase idb;
+	
 	/// Number of items
 	public static final int ITEMS = 100;
 	
 	/**
 	 * Constructor.
 	 * @param itemf the fragment that will be notified
+	 * @param idb the items database, or <code>null</code>
 	 */
-	public ToxicFilter (Filter.Callback itemf)	
+	public ToxicFilter (Filter.Callback itemf, ItemsDatabase idb)	
 	{
 		this.itemf = itemf;
+		this.idb = idb;
 	}
 	
 	/**
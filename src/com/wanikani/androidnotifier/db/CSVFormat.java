@@ -16,7 +16,6 @@ import android.database.Cursor;
 import android.database.SQLException;
 
 import com.wanikani.androidnotifier.db.HistoryDatabase.FactType;
-import com.wanikani.androidnotifier.db.HistoryDatabase.Levels;
 import com.wanikani.wklib.SRSDistribution;
 
 /* 
@@ -77,16 +76,13 @@ public class CSVFormat implements Format {
 	{
 		HistoryDatabase db;
 		
-		synchronized (HistoryDatabase.MUTEX) {
-			db = new HistoryDatabase (ctxt);
-
-			try {
-				db.openR ();
+		db = new HistoryDatabase (ctxt);
+		try {
+			db.openR ();
 			
-				doExport (new PrintStream (os), db);			
-			} finally {
-				db.close ();
-			}
+			doExport (new PrintStream (os), db);			
+		} finally {
+			db.close ();
 		}
 	}
 	
@@ -220,6 +216,7 @@ public class CSVFormat implements Format {
 	protected ImportState passTwo (File file, int day)
 			throws IOException, SQLException
 	{
+		HistoryDatabase.Batch batch;
 		HistoryDatabase hdb;
 		BufferedReader is;
 		Set<Integer> recl;
@@ -239,16 +236,21 @@ public class CSVFormat implements Format {
 			synchronized (HistoryDatabase.MUTEX) {
 				hdb = new HistoryDatabase (ctxt);
 				hdb.openW ();
+				batch = null;
 				try {
+					batch = hdb.beginBatch ();
 					HistoryDatabase.Facts.fillGapsThoroughly (hdb.db, day);
 					recl = HistoryDatabase.Levels.getReconstructedLevels (hdb.db);
 					while (true) {
 						tab = rdRow (is);
 						if (tab == null || tab.length == 0)
 							break;
-						insert (hdb, recl, tab, istate);
+						insert (hdb, batch, recl, tab, istate);
 					}
+					batch.commit ();
 				} finally {
+					if (batch != null)
+						batch.close ();
 					hdb.close ();
 				}
 			}
@@ -324,7 +326,8 @@ public class CSVFormat implements Format {
 		row (os, day, level);
 	}
 	
-	protected void insert (HistoryDatabase hdb, Set<Integer> recl, String tab [], ImportState istate)
+	protected void insert (HistoryDatabase hdb, HistoryDatabase.Batch batch, Set<Integer> recl,
+						   String tab [], ImportState istate)
 	{	
 		int day, level, vacation;
 		SRSDistribution srs;
@@ -364,7 +367,7 @@ public class CSVFormat implements Format {
 		
 		if (istate.level != level) {
 			istate.level = level;
-			Levels.insertOrUpdate (hdb.db, level, day, vacation);
+			batch.setLevel (level, day, vacation);
 		}
 		istate.updated += HistoryDatabase.Facts.importDay (hdb.db, day, srs, type);
 		istate.read++;
@@ -0,0 +1,155 @@
+package com.wanikani.androidnotifier.db;
+
+import com.wanikani.wklib.SRSDistribution;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * A columnar image of the facts table. There is one array for each
+ * SRS level and item type, indexed by day, so plots can use
+ * the arrays as they are, without copying samples into a new object
+ * for each page and each datasource.
+ * Samples are stored as floats, because this is what plots expect.
+ * Since they are item counts, they are represented exactly.
+ * <p>
+ * The store is filled by the background threads that load pages, while
+ * the arrays are read by the UI thread. Writes and array retrieval are
+ * therefore synchronized. When the store grows, arrays are
+ * replaced by bigger copies: callers that obtained a column before that
+ * still see the days written so far, which is all they need.
+ * <p>
+ * Days are stored as pages are loaded, not all at once, but nothing is
+ * ever removed: the store is bounded by the length of the history 
+ * (80 bytes a day, i.e. about 30KB a year), plus one growth step.
+ */
+public class FactsStore {
+
+	/** Apprentice items (unlocked items, if data is partial) */
+	public static final int APPRENTICE = 0;
+
+	/** Guru items */
+	public static final int GURU = 1;
+
+	/** Master items */
+	public static final int MASTER = 2;
+
+	/** Enlightened items */
+	public static final int ENLIGHTEN = 3;
+
+	/** Burned items */
+	public static final int BURNED = 4;
+
+	/** Radicals */
+	public static final int RADICALS = 0;
+
+	/** Kanji */
+	public static final int KANJI = 1;
+
+	/** Vocab items */
+	public static final int VOCAB = 2;
+
+	/** All the items */
+	public static final int TOTAL = 3;
+
+	/** Number of item types, including {@link #TOTAL} */
+	private static final int KINDS = 4;
+
+	/** Number of columns */
+	private static final int COLUMNS = 5 * KINDS;
+
+	/** Initial capacity, in days */
+	private static final int INITIAL_CAPACITY = 365;
+	
+	/** Extra capacity, in days, allocated when the store grows */
+	private static final int GROWTH = 90;
+
+	/** The columns */
+	private float columns [][];
+
+	/**
+	 * Constructor
+	 */
+	public FactsStore ()
+	{
+		columns = new float [COLUMNS][INITIAL_CAPACITY];
+	}
+
+	/**
+	 * Makes sure that a given day can be stored
+	 * @param day the day
+	 */
+	private void ensureCapacity (int day)
+	{
+		float col [];
+		int i, capacity;
+
+		if (day < columns [0].length)
+			return;
+
+		/* Pages are usually loaded from the most recent one, so this 
+		 * seldom happens more than once */
+		capacity = day + 1 + GROWTH;
+		for (i = 0; i < COLUMNS; i++) {
+			col = new float [capacity];
+			System.arraycopy (columns [i], 0, col, 0, columns [i].length);
+			columns [i] = col;
+		}
+	}
+
+	/**
+	 * Stores a day
+	 * @param day the day
+	 * @param srs the day's distribution
+	 */
+	public synchronized void put (int day, SRSDistribution srs)
+	{
+		ensureCapacity (day);
+
+		put (day, APPRENTICE, srs.apprentice);
+		put (day, GURU, srs.guru);
+		put (day, MASTER, srs.master);
+		put (day, ENLIGHTEN, srs.enlighten);
+		put (day, BURNED, srs.burned);
+	}
+
+	/**
+	 * Stores a level of a day's distribution
+	 * @param day the day
+	 * @param level the SRS level
+	 * @param l the data
+	 */
+	private void put (int day, int level, SRSDistribution.Level l)
+	{
+		level *= KINDS;
+		columns [level + RADICALS][day] = l.radicals;
+		columns [level + KANJI][day] = l.kanji;
+		columns [level + VOCAB][day] = l.vocabulary;
+		columns [level + TOTAL][day] = l.total;
+	}
+
+	/**
+	 * Returns a column. The array must not be modified.
+	 * @param level the SRS level (e.g. {@link #GURU})
+	 * @param kind the item type (e.g. {@link #KANJI}), or {@link #TOTAL}
+	 * @return the samples, indexed by day
+	 */
+	public synchronized float [] getColumn (int level, int kind)
+	{
+		return columns [level * KINDS + kind];
+	}
+}
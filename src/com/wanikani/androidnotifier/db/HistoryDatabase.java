@@ -13,6 +13,7 @@ import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
 
 import com.wanikani.wklib.Item;
 import com.wanikani.wklib.Kanji;
@@ -41,19 +42,22 @@ import com.wanikani.wklib.Vocabulary;
 
 /**
  * The database helper that gives access to the user facts tables.
- * The schema of this database is quite simple, since it comprises just two 
- * (permanent) tables:
+ * The schema of this database is quite simple, since it comprises just three 
+ * tables:
  * <ul>
  * <li>The facts table, that records all the SRS distribution state for each day
  * <li>The levels table, associating each level to the the day the user levelled up
+ * <li>The summary table, a one-row materialized view of the facts table stats
  * </ul>   
- * In addition to these tables, this class creates an auxilary (and temporary) table
- * to perform item reconstruction. We do this to minimize the consequences of
- * an item reconstruction going wrong: the actual update of the facts table is
- * performed using a single SQL statement, and this makes error management
- * a lot easier.<p>
+ * Item reconstruction needs no table of its own: the per-day counters are
+ * kept in memory as arrays of deltas, and their prefix sums are written onto 
+ * the facts table by a compiled REPLACE statement, executed in a loop inside
+ * a single transaction. So an item reconstruction going wrong either
+ * leaves the facts table untouched or is rolled back, and this makes error 
+ * management a lot easier.<p>
  * Access to the three tables is performed through three classes ({@link Facts},
- * {@link Level} and {@link ReconstructTable respectively}). We don't follow
+ * {@link Levels} and {@link Summary} respectively), while reconstruction
+ * is performed by {@link ReconstructTable}. We don't follow
  * the DAO pattern, since it seems quite unfit to the objects rows represent.<p>
  * This class exposes both static and non-static methods. Static methods should
  * be used for simple operations, because they take care of opening the DB, 
@@ -348,8 +352,8 @@ public class HistoryDatabase {
 		 */
 		public static void fillGap (SQLiteDatabase db, int day)
 		{
-			SQLiteStatement stmt;
 			String cols [];
+			Batch batch;
 			Cursor c;
 			int i, n;
 			
@@ -359,23 +363,31 @@ public class HistoryDatabase {
 			if (c == null)
 				return;
 			try {
-				if (c.moveToNext ()) {
-					n = c.isNull (0) ? -1 : (int) c.getLong (0);
-					stmt = db.compileStatement (SQL_INSERT_DAY);
-					for (i = n + 1; i < day; i++) {
-						stmt.bindLong (1, i);
-						stmt.executeInsert ();
-					}
-				}
+				if (!c.moveToNext ())
+					return;
+				n = c.isNull (0) ? -1 : (int) c.getLong (0);
 			} finally {
 				c.close ();
 			}
+
+			if (n + 1 >= day)
+				return;
+			
+			batch = new Batch (db);
+			try {
+				for (i = n + 1; i < day; i++)
+					batch.insertDay (i);
+				batch.commit ();
+			} finally {
+				batch.close ();
+			}
 		}
 		
 		/**
 		 * Fills all the gaps in the database. This (maintenance) method 
 		 * goes through all the table and, if some day is missing in the sequence,
-		 * it adds it as an empty record
+		 * it adds it as an empty record. The existing days are read
+		 * in order with a single query, so only the missing ones are inserted
 		 * @param db the database
 		 * @param day the last day that should be present in the sequence
 		 * @throws SQLException
@@ -383,33 +395,36 @@ public class HistoryDatabase {
 		public static void fillGapsThoroughly (SQLiteDatabase db, int day)
 			throws SQLException
 		{
-			SQLiteStatement stmt;
 			String cols [], args [];
+			Batch batch;
 			Cursor c;
-			int i;
+			int i, next;
 						
-			cols = new String [] { " COUNT (*)" };
+			cols = new String [] { C_DAY };
 			args = new String [] { Integer.toString (day) };
 		 	
-			/* First of all we must make sure that gaps do exist */
+			batch = null;
 			c = null;
 			try {
-				c = db.query (TABLE, cols, WHERE_DAY_LTE, args, null, null, null);
-				if (c.moveToNext () && !c.isNull (0)) {
-					if (c.getInt (0) == day + 1)
-						return;
+				c = db.query (TABLE, cols, WHERE_DAY_LTE, args, null, null, C_DAY);
+				next = 0;
+				while (next <= day) {
+					i = c.moveToNext () ? c.getInt (0) : day + 1;
+					if (i < next)
+						continue;
+					if (i > next && batch == null)
+						batch = new Batch (db);
+					while (next < i)
+						batch.insertDay (next++);
+					next = i + 1;
 				}
+				if (batch != null)
+					batch.commit ();
 			} finally {
 				if (c != null)
 					c.close ();
-			}
-			
-			/* Yeah, I know, using rowcount I could identify where gaps lie, 
-			 * but this should never happen, so we can afford being brutal */
-			stmt = db.compileStatement (SQL_INSERT_DAY);
-			for (i = 0; i <= day; i++) {
-				stmt.bindLong (1, i);
-				stmt.executeInsert ();
+				if (batch != null)
+					batch.close ();
 			}
 		}
 		
@@ -462,6 +477,7 @@ public class HistoryDatabase {
 			try {
 				db.delete (TABLE, WHERE_DAY_IS, deleteArgs);
 				db.insertOrThrow (TABLE, null, cv);
+				updateSummary (db, cv);
 				db.setTransactionSuccessful ();
 			} finally {
 				db.endTransaction ();
@@ -472,6 +488,7 @@ public class HistoryDatabase {
 		{
 			ContentValues cv;
 			String where, args [];
+			int n;
 			
 			args = new String [] { Integer.toString (day) };
 			
@@ -526,7 +543,11 @@ public class HistoryDatabase {
 				return 0;
 			}
 			
-			return db.update (TABLE, cv, where, args);
+			n = db.update (TABLE, cv, where, args);
+			if (n > 0)
+				updateSummary (db, cv);
+			
+			return n;
 		}
 		
 		/**
@@ -561,7 +582,8 @@ public class HistoryDatabase {
 		
 		/**
 		 * Returns a {@link CoreStats} object, containing some overall info regarding
-		 * this database.
+		 * this database. This is a constant time operation, since the info is 
+		 * read from the {@link Summary} table.
 		 * @param db the database
 		 * @param ui user information
 		 * @return the overall info
@@ -571,29 +593,13 @@ public class HistoryDatabase {
 				throws SQLException
 		{
 			CoreStats cs;
-			String cols [];
 			Cursor c;
 			
-			cols = new String [] {
-				"MAX(" + C_UNLOCKED_RADICALS + ")",
-				"MAX(" + C_UNLOCKED_KANJI + ")",
-				"MAX(" + C_UNLOCKED_VOCAB + ")",
-				"MAX(" + C_UNLOCKED_RADICALS + " + " + C_BURNED_RADICALS + ")",
-				"MAX(" + C_UNLOCKED_KANJI + " + " + C_BURNED_KANJI + ")",
-				"MAX(" + C_UNLOCKED_VOCAB + " + " + C_BURNED_VOCAB + ")"
-			};
 			c = null;
 			cs = null;
 			try {
-				c = db.query(TABLE, cols, null, null, null, null, null);
-				c.moveToFirst ();
-				cs = new CoreStats (getIntOrZero (c, 0),
-									getIntOrZero (c, 1),
-									getIntOrZero (c, 2),
-									getIntOrZero (c, 3),
-									getIntOrZero (c, 4),
-									getIntOrZero (c, 5),
-									Levels.getLevelInfo (db, ui));
+				c = db.query (Summary.TABLE, Summary.COLUMNS, null, null, null, null, null);
+				cs = Summary.getCoreStats (c, Levels.getLevelInfo (db, ui));
 			} catch (SQLException e) {
 				cs = new CoreStats (0, 0, 0, 0, 0, 0, null);
 			} finally {
@@ -603,6 +609,23 @@ public class HistoryDatabase {
 			
 			return cs;
 		}
+		
+		/**
+		 * Updates the summary table after a row has been written. 
+		 * @param db the database
+		 * @param cv the values written, which must include all the unlocked
+		 * 	and burned columns
+		 */
+		private static void updateSummary (SQLiteDatabase db, ContentValues cv)
+		{
+			Summary.update (db, 
+							cv.getAsInteger (C_UNLOCKED_RADICALS),
+							cv.getAsInteger (C_UNLOCKED_KANJI),
+							cv.getAsInteger (C_UNLOCKED_VOCAB),
+							cv.getAsInteger (C_BURNED_RADICALS),
+							cv.getAsInteger (C_BURNED_KANJI),
+							cv.getAsInteger (C_BURNED_VOCAB));
+		}
 
 		/**
 		 * Returns the type of row currently selected by the cursor.
@@ -691,72 +714,134 @@ public class HistoryDatabase {
 	}
 	
 	/**
-	 * A temporary table used to reconstruct SRS distribution from item information.
-	 * This is actually implemented by creating a subset of the facts table
-	 * (it contains just the unlocked and burned columns for each item type).
+	 * Reconstructs the SRS distribution from item information.
 	 * An instance of this class is fed with all the items from level one to
-	 * the user's current level, so it can update the rows of this temporary table.
-	 * At the end of the process, we update the master table using a single
-	 * sql statement.
+	 * the user's current level. Instead of updating one row per day for each
+	 * item, we keep, for each counter, an array of per-day deltas: an item
+	 * unlocked on day <i>a</i> and burned on day <i>b</i> adds one at <i>a</i> 
+	 * and subtracts one at <i>b + 1</i>. The actual counters are the prefix sums 
+	 * of these arrays, and are written onto the master table in a single
+	 * transaction at the end of the process. Only the rows containing partial 
+	 * or no data are written, because these are the ones we can't trust.
 	 * This class also takes care of updating the levelup table. Here, however,
 	 * the rows are comparatively few, so we store everything in an hashtable
 	 * and update the master levels table row by row (the operation is idempotent).
 	 */
 	public static class ReconstructTable {
 
-		/** The table name */
-		private static final String TABLE = "reconstruct";
-		
-		/** Primary key. The same as the master facts table */
-		private static final String C_DAY = "_id";
-		
-		/** Number of burned radicals */
-		private static final String C_BURNED_RADICALS = "burned_radicals";
-		
-		/** Number of unlocked radicals */
-		private static final String C_UNLOCKED_RADICALS = "unlocked_radicals";
-
-		/** Number of burned kanji */
-		private static final String C_BURNED_KANJI = "burned_kanji";
-
-		/** Number of unlocked kanji */
-		private static final String C_UNLOCKED_KANJI = "unlocked_kanji";
-
-		/** Number of burned vocab items */
-		private static final String C_BURNED_VOCAB = "burned_vocab";
-		
-		/** Number of unlocked vocab items */
-		private static final String C_UNLOCKED_VOCAB = "unlocked_vocab";
-		
-		/** The SQL create statement */
-		private static final String SQL_CREATE = 
-				"CREATE TABLE " + TABLE + " (" +
-
-						C_DAY + " INTEGER PRIMARY KEY," +
-						
-						C_BURNED_RADICALS + " INTEGER DEFAULT 0, " +
-						C_UNLOCKED_RADICALS + " INTEGER DEFAULT 0, " +
-
-						C_BURNED_KANJI + " INTEGER DEFAULT 0, " +
-						C_UNLOCKED_KANJI + " INTEGER DEFAULT 0, " +
-
-						C_BURNED_VOCAB + " INTEGER DEFAULT 0, " +
-						C_UNLOCKED_VOCAB + " INTEGER DEFAULT 0)";
-		
-		/** The SQL drop statement */
-		private static final String SQL_DROP = 
-				"DROP TABLE IF EXISTS " + TABLE;
-		
-		/** Loads the day sequence from the master table to the reconstruct table.
-		 *  It is important to select only the rows containing partial or no data,
-		 *  because at the end of the process all those rows will be overwritten
-		 *  on the master table  */
-		private static final String SQL_COPY_FROM_FACTS =
-				"INSERT INTO " + TABLE +  "(" + C_DAY + ") " + 
-						Facts.SQL_MISSING_DAYS;
+		/**
+		 * The per-day counters. They do not depend on the database, so 
+		 * they can be checked against the row-by-row updates they replace.
+		 */
+		static class Counters {
+			
+			/** The days to be rewritten, in ascending order */
+			int days [];
+			
+			/** The first day of the counter arrays */
+			int first;
+			
+			/** Per-day deltas of the unlocked counters, for each item type */
+			int unlocked [][];
+			
+			/** Per-day deltas of the burned counters, for each item type */
+			int burned [][];
+			
+			/**
+			 * Constructor.
+			 * @param days the days to be rewritten, in ascending order
+			 */
+			Counters (int days [])
+			{
+				int n;
+				
+				this.days = days;
+				
+				first = days.length > 0 ? days [0] : 0;
+				n = days.length > 0 ? days [days.length - 1] - first + 1 : 0;
+				unlocked = new int [3][n];
+				burned = new int [3][n];
+			}
+			
+			/**
+			 * Increments a counter from one day up to the end of the table
+			 * @param deltas the counter deltas 
+			 * @param from the first day
+			 */
+			private void above (int deltas [], int from)
+			{
+				from = Math.max (from - first, 0);
+				if (from < deltas.length)
+					deltas [from]++;
+			}
+			
+			/**
+			 * Increments a counter from one day to another (inclusive)
+			 * @param deltas the counter deltas
+			 * @param from the first day
+			 * @param to the last day
+			 */
+			private void between (int deltas [], int from, int to)
+			{
+				from = Math.max (from - first, 0);
+				to -= first;
+				if (from > to || from >= deltas.length)
+					return;
+				
+				deltas [from]++;
+				if (to + 1 < deltas.length)
+					deltas [to + 1]--;
+			}
+			
+			/**
+			 * Accounts for an item that has been unlocked and not burned yet.
+			 * @param type the index of the counters of its type
+			 * @param from the unlock day
+			 */
+			void unlocked (int type, int from)
+			{
+				above (unlocked [type], from);
+			}
+			
+			/**
+			 * Accounts for a burned item.
+			 * @param type the index of the counters of its type
+			 * @param from the unlock day
+			 * @param to the burn day
+			 */
+			void burned (int type, int from, int to)
+			{
+				between (unlocked [type], from, to);
+				above (burned [type], to);
+			}
+			
+			/**
+			 * Turns the deltas into the rows to be written.
+			 * @return for each of the days, the unlocked and burned counters
+			 * 	of each type, in the same order as the statement columns 
+			 */
+			int [][] getRows ()
+			{
+				int ans [][], acc [], i, j, k;
+
+				ans = new int [days.length][];
+				acc = new int [6];
+				k = 0;
+				for (i = 0; i < unlocked [RADICALS].length; i++) {
+					for (j = 0; j < 3; j++) {
+						acc [2 * j] += unlocked [j][i];
+						acc [2 * j + 1] += burned [j][i];
+					}
+					if (days [k] == first + i)
+						ans [k++] = acc.clone ();
+				}
+				
+				return ans;
+			}
+		}
 		
 		/** Puts the reconstructed data onto the master table */
-		private static final String SQL_COPY_TO_FACTS =
+		private static final String SQL_REPLACE_FACTS =
 				"REPLACE INTO " + Facts.TABLE + "( " +
 						Facts.C_DAY + ", " +
 						Facts.C_UNLOCKED_RADICALS + ", " +
@@ -765,70 +850,17 @@ public class HistoryDatabase {
 						Facts.C_BURNED_KANJI + ", " +
 						Facts.C_UNLOCKED_VOCAB + ", "+
 						Facts.C_BURNED_VOCAB + " ) " +
-				"SELECT " +
-						C_DAY + ", " +
-						C_UNLOCKED_RADICALS + ", " +
-						C_BURNED_RADICALS + ", " +
-						C_UNLOCKED_KANJI + ", " +
-						C_BURNED_KANJI + ", " +
-						C_UNLOCKED_VOCAB + ", "+
-						C_BURNED_VOCAB + " " +
-				"FROM " + TABLE;
-
-		/** Increase by one the values of a field from one day up to the end of the table */
-		private static String SQL_ABOVE =
-				"UPDATE " + TABLE + " SET %1$s = %1$s + 1 WHERE " + C_DAY + " >= ?";
-		
-		/** Increase by one the values of a field from one day to another */
-		private static String SQL_BETWEEN =
-				"UPDATE " + TABLE + " SET %1$s = %1$s + 1 WHERE " + 
-						C_DAY + " BETWEEN ? AND ?";
-		
-		/** A prepared statement to update the table when an unlocked radical
-		 *  is encountered. It increments the unlocked radicals counter from
-		 *  the unlock day up to the end of the table */
-		private SQLiteStatement radicalStmtU;
-		
-		/** The first prepared statement to update the table when a burned radical
-		 *  is encountered. It increments the unlocked radicals counter from
-		 *  the unlock day up to the day it is burned */
-		private SQLiteStatement radicalStmtB1;
-		
-		/** The second prepared statement to update the table when a burned radical
-		 *  is encountered. It increments the burned radicals counter from the
-		 *  day it is burned */
-		private SQLiteStatement radicalStmtB2;
-
-		/** A prepared statement to update the table when an unlocked kanji
-		 *  is encountered. It increments the unlocked kanji counter from
-		 *  the unlock day up to the end of the table */
-		private SQLiteStatement kanjiStmtU;
-		
-		/** The first prepared statement to update the table when a burned kanji
-		 *  is encountered. It increments the unlocked kanji counter from
-		 *  the unlock day up to the day it is burned */
-		private SQLiteStatement kanjiStmtB1;
-		
-		/** The second prepared statement to update the table when a burned kanji
-		 *  is encountered. It increments the burned kanji counter from the
-		 *  day it is burned */
-		private SQLiteStatement kanjiStmtB2;
-
-		/** A prepared statement to update the table when an unlocked vocab items
-		 *  is encountered. It increments the unlocked vocab items counter from
-		 *  the unlock day up to the end of the table */
-		private SQLiteStatement vocabStmtU;
-		
-		/** The first prepared statement to update the table when a burned vocab item
-		 *  is encountered. It increments the unlocked vocab items counter from
-		 *  the unlock day up to the day it is burned */
-		private SQLiteStatement vocabStmtB1;
-				
-		/** The second prepared statement to update the table when a burned vocab item
-		 *  is encountered. It increments the burned vocab items counter from the
-		 *  day it is burned */
-		private SQLiteStatement vocabStmtB2;
-
+				"VALUES (?, ?, ?, ?, ?, ?, ?)";
+		
+		/** Index of radicals in the counter arrays */
+		private static final int RADICALS = 0;
+		
+		/** Index of kanji in the counter arrays */
+		private static final int KANJI = 1;
+		
+		/** Index of vocab in the counter arrays */
+		private static final int VOCAB = 2;
+		
 		/** The database */
 		private SQLiteDatabase db;
 		
@@ -838,6 +870,9 @@ public class HistoryDatabase {
 		/** The levels table, mapping levels to levelup and vacation days */
 		private Map<Integer, LevelInfo> levelups;
 		
+		/** The per-day counters */
+		private Counters counters;
+		
 		/**
 		 * Constructor.
 		 * @param ui the user information 
@@ -846,56 +881,33 @@ public class HistoryDatabase {
 		 */
 		private ReconstructTable (UserInformation ui, SQLiteDatabase db, int day)
 		{			
+			int days [], i;
+			Cursor c;
+			
 			this.db = db;
 			this.ui = ui;
 			
-			db.execSQL (SQL_DROP);
-			db.execSQL (SQL_CREATE);
-			db.execSQL (SQL_COPY_FROM_FACTS);			
+			c = db.rawQuery (Facts.SQL_MISSING_DAYS + " ORDER BY " + Facts.C_DAY, null);
+			try {
+				days = new int [c.getCount ()];
+				i = 0;
+				while (c.moveToNext ())
+					days [i++] = c.getInt (0);
+			} finally {
+				c.close ();
+			}
 			
-			levelups = Levels.getLevelInfo (db);
+			counters = new Counters (days);
 			
-			radicalStmtU = db.compileStatement 
-					(String.format (SQL_ABOVE, C_UNLOCKED_RADICALS));
-			radicalStmtB1 = db.compileStatement
-					(String.format (SQL_BETWEEN, C_UNLOCKED_RADICALS));
-			radicalStmtB2 = db.compileStatement
-					(String.format (SQL_ABOVE, C_BURNED_RADICALS));
-
-			kanjiStmtU = db.compileStatement 
-					(String.format (SQL_ABOVE, C_UNLOCKED_KANJI));
-			kanjiStmtB1 = db.compileStatement
-					(String.format (SQL_BETWEEN, C_UNLOCKED_KANJI));
-			kanjiStmtB2 = db.compileStatement
-					(String.format (SQL_ABOVE, C_BURNED_KANJI));
-
-			vocabStmtU = db.compileStatement 
-					(String.format (SQL_ABOVE, C_UNLOCKED_VOCAB));
-			vocabStmtB1 = db.compileStatement
-					(String.format (SQL_BETWEEN, C_UNLOCKED_VOCAB));
-			vocabStmtB2 = db.compileStatement
-					(String.format (SQL_ABOVE, C_BURNED_VOCAB));
+			levelups = Levels.getLevelInfo (db);
 		}
 		
 		/**
-		 * Ends the reconstruction process. Closes the statements and 
-		 * drops the table.
+		 * Ends the reconstruction process. 
 		 */
 		public void close ()
 		{
-			radicalStmtU.close ();
-			radicalStmtB1.close ();
-			radicalStmtB2.close ();
-			
-			kanjiStmtU.close ();
-			kanjiStmtB1.close ();
-			kanjiStmtB2.close ();
-			
-			vocabStmtU.close ();
-			vocabStmtB1.close ();
-			vocabStmtB2.close ();
-			
-			db.execSQL (SQL_DROP);
+			counters = null;
 		}
 		
 		/**
@@ -923,33 +935,37 @@ public class HistoryDatabase {
 		}
 		
 		/**
-		 * Updates table and levlups hashtable using the info contained
-		 * in a radical. This method must be called for each unlocked radical.
-		 * @param radical a radical
+		 * Updates the counters and levelups hashtable using the info
+		 * contained in an item.
+		 * @param item the item
+		 * @param type the index of the counters of its type
 		 */
-		public void load (Radical radical)
+		private void load (Item item, int type)
 		{
 			Date from, to;
 			
-			checkLevelup (radical);
+			checkLevelup (item);
 			
-			from = radical.getUnlockedDate ();
+			from = item.getUnlockedDate ();
 			if (from == null)
 				return;
 
-			to = radical.stats.burned ? radical.stats.burnedDate : null; 
+			to = item.stats.burned ? item.stats.burnedDate : null; 
 			
-			if (to != null) {
-				radicalStmtB1.bindLong (1, ui.getDay (from));
-				radicalStmtB1.bindLong (2, ui.getDay (to));
-				radicalStmtB1.execute ();
-				
-				radicalStmtB2.bindLong (1, ui.getDay (to));
-				radicalStmtB2.execute ();				
-			} else {
-				radicalStmtU.bindLong (1, ui.getDay (from));
-				radicalStmtU.execute ();				
-			}
+			if (to != null)
+				counters.burned (type, ui.getDay (from), ui.getDay (to));
+			else
+				counters.unlocked (type, ui.getDay (from));
+		}
+		
+		/**
+		 * Updates table and levlups hashtable using the info contained
+		 * in a radical. This method must be called for each unlocked radical.
+		 * @param radical a radical
+		 */
+		public void load (Radical radical)
+		{
+			load (radical, RADICALS);
 		}
 		
 		/**
@@ -959,27 +975,7 @@ public class HistoryDatabase {
 		 */
 		public void load (Kanji kanji)
 		{
-			Date from, to;
-			
-			checkLevelup (kanji);
-
-			from = kanji.getUnlockedDate ();
-			if (from == null)
-				return;
-
-			to = kanji.stats.burned ? kanji.stats.burnedDate : null; 
-			
-			if (to != null) {
-				kanjiStmtB1.bindLong (1, ui.getDay (from));
-				kanjiStmtB1.bindLong (2, ui.getDay (to));
-				kanjiStmtB1.execute ();
-				
-				kanjiStmtB2.bindLong (1, ui.getDay (to));
-				kanjiStmtB2.execute ();				
-			} else {
-				kanjiStmtU.bindLong (1, ui.getDay (from));
-				kanjiStmtU.execute ();				
-			}
+			load (kanji, KANJI);
 		}
 		
 		/**
@@ -990,27 +986,7 @@ public class HistoryDatabase {
 		 */
 		public void load (Vocabulary vocab)
 		{
-			Date from, to;
-			
-			checkLevelup (vocab);
-			
-			from = vocab.getUnlockedDate ();
-			if (from == null)
-				return;
-			
-			to = vocab.stats.burned ? vocab.stats.burnedDate : null; 
-			
-			if (to != null) {
-				vocabStmtB1.bindLong (1, ui.getDay (from));
-				vocabStmtB1.bindLong (2, ui.getDay (to));
-				vocabStmtB1.execute ();
-				
-				vocabStmtB2.bindLong (1, ui.getDay (to));
-				vocabStmtB2.execute ();				
-			} else {
-				vocabStmtU.bindLong (1, ui.getDay (from));
-				vocabStmtU.execute ();				
-			}
+			load (vocab, VOCAB);
 		}
 		
 		/**
@@ -1020,8 +996,29 @@ public class HistoryDatabase {
 		 */
 		private void merge ()
 		{
+			SQLiteStatement stmt;
+			int rows [][], i, j;
+			
 			Levels.setLevelInfo (db, levelups);
-			db.execSQL (SQL_COPY_TO_FACTS);
+			
+			rows = counters.getRows ();
+			stmt = db.compileStatement (SQL_REPLACE_FACTS);
+			db.beginTransaction ();
+			try {
+				for (i = 0; i < rows.length; i++) {
+					stmt.bindLong (1, counters.days [i]);
+					for (j = 0; j < rows [i].length; j++)
+						stmt.bindLong (j + 2, rows [i][j]);
+					stmt.execute ();
+				}
+				/* Replaced rows may be lower than before, so the maxima 
+				 * can't simply be raised */
+				Summary.rebuild (db);
+				db.setTransactionSuccessful ();
+			} finally {
+				db.endTransaction ();
+				stmt.close ();
+			}
 		}
 		
 	}
@@ -1222,22 +1219,24 @@ public class HistoryDatabase {
 		/**
 		 * Replaces the contents of the table. If a level is not present 
 		 * in the map, the corresponding table row (if present) is left
-		 * untouched. The operation is not atomic (I can't see a reason why
-		 * it should be).
+		 * untouched. All the rows are written in a single transaction.
 		 * @param db the database
 		 * @param map a map
 		 */
 		public static void setLevelInfo (SQLiteDatabase db, Map<Integer, LevelInfo> map)
 		{
-			SQLiteStatement stmt;
+			Batch batch;
 			
-			stmt = db.compileStatement (SQL_REPLACE);			
+			if (map.isEmpty ())
+				return;
 			
-			for (Map.Entry<Integer, LevelInfo> e : map.entrySet ()) {
-				stmt.bindLong (1, e.getKey ());
-				stmt.bindLong (2, e.getValue().day);
-				stmt.bindLong (3, e.getValue ().vacation);
-				stmt.executeInsert ();
+			batch = new Batch (db);
+			try {
+				for (Map.Entry<Integer, LevelInfo> e : map.entrySet ())
+					batch.setLevel (e.getKey (), e.getValue ().day, e.getValue ().vacation);
+				batch.commit ();
+			} finally {
+				batch.close ();
 			}
 		}
 		
@@ -1285,13 +1284,298 @@ public class HistoryDatabase {
 		
 	}
 	
+	/**
+	 * A materialized view of the facts table, holding the information
+	 * returned by {@link Facts#getCoreStats(SQLiteDatabase, UserInformation)}. 
+	 * It has exactly one row, which is updated each time a fact is written, 
+	 * so the stats can be read without scanning the facts table.
+	 * Since each column is a running maximum, it is an upper bound of the 
+	 * actual value: the two differ only if a fact is replaced by a smaller one,
+	 * which can happen only when importing inconsistent data. 
+	 * {@link #check(SQLiteDatabase)} and {@link #rebuild(SQLiteDatabase)}
+	 * can be used to find and fix such cases.
+	 */
+	static class Summary {
+		
+		/** The table name */
+		private static final String TABLE = "summary";
+		
+		/** Maximum number of unlocked radicals */
+		private static final String C_MAX_UNLOCKED_RADICALS = "max_unlocked_radicals";
+		
+		/** Maximum number of unlocked kanji */
+		private static final String C_MAX_UNLOCKED_KANJI = "max_unlocked_kanji";
+
+		/** Maximum number of unlocked vocab items */
+		private static final String C_MAX_UNLOCKED_VOCAB = "max_unlocked_vocab";
+
+		/** Maximum number of unlocked/burned radicals */
+		private static final String C_MAX_RADICALS = "max_radicals";
+		
+		/** Maximum number of unlocked/burned kanji */
+		private static final String C_MAX_KANJI = "max_kanji";
+
+		/** Maximum number of unlocked/burned vocab items */
+		private static final String C_MAX_VOCAB = "max_vocab";
+		
+		/** All the columns, in the order expected by {@link #getCoreStats(Cursor, Map)} */
+		private static final String COLUMNS [] = new String [] {
+			C_MAX_UNLOCKED_RADICALS, C_MAX_UNLOCKED_KANJI, C_MAX_UNLOCKED_VOCAB,
+			C_MAX_RADICALS, C_MAX_KANJI, C_MAX_VOCAB
+		};
+
+		/** The create statement */
+		private static final String SQL_CREATE = 
+				"CREATE TABLE " + TABLE + " (" +
+						C_MAX_UNLOCKED_RADICALS + " INTEGER NOT NULL," +
+						C_MAX_UNLOCKED_KANJI + " INTEGER NOT NULL," +
+						C_MAX_UNLOCKED_VOCAB + " INTEGER NOT NULL," +
+						C_MAX_RADICALS + " INTEGER NOT NULL," +
+						C_MAX_KANJI + " INTEGER NOT NULL," +
+						C_MAX_VOCAB + " INTEGER NOT NULL)";
+		
+		/** The drop statement */
+		private static final String SQL_DROP = 
+				"DROP TABLE IF EXISTS " + TABLE;
+		
+		/** Computes the summary from scratch, scanning the facts table */
+		private static final String SQL_COMPUTE =
+				"SELECT " +
+					"IFNULL(MAX(" + Facts.C_UNLOCKED_RADICALS + "), 0), " +
+					"IFNULL(MAX(" + Facts.C_UNLOCKED_KANJI + "), 0), " +
+					"IFNULL(MAX(" + Facts.C_UNLOCKED_VOCAB + "), 0), " +
+					"IFNULL(MAX(" + Facts.C_UNLOCKED_RADICALS + " + " + Facts.C_BURNED_RADICALS + "), 0), " +
+					"IFNULL(MAX(" + Facts.C_UNLOCKED_KANJI + " + " + Facts.C_BURNED_KANJI + "), 0), " +
+					"IFNULL(MAX(" + Facts.C_UNLOCKED_VOCAB + " + " + Facts.C_BURNED_VOCAB + "), 0) " +
+				"FROM " + Facts.TABLE;
+		
+		/** Replaces the contents of the table with a full recomputation */
+		private static final String SQL_REBUILD =
+				"INSERT INTO " + TABLE + " " + SQL_COMPUTE;
+		
+		/** Deletes the contents of the table */
+		private static final String SQL_CLEAR = 
+				"DELETE FROM " + TABLE;
+		
+		/** Raises each column to a new value, if it is larger */
+		private static final String SQL_UPDATE =
+				"UPDATE " + TABLE + " SET " +
+					C_MAX_UNLOCKED_RADICALS + " = MAX(" + C_MAX_UNLOCKED_RADICALS + ", ?), " +
+					C_MAX_UNLOCKED_KANJI + " = MAX(" + C_MAX_UNLOCKED_KANJI + ", ?), " +
+					C_MAX_UNLOCKED_VOCAB + " = MAX(" + C_MAX_UNLOCKED_VOCAB + ", ?), " +
+					C_MAX_RADICALS + " = MAX(" + C_MAX_RADICALS + ", ?), " +
+					C_MAX_KANJI + " = MAX(" + C_MAX_KANJI + ", ?), " +
+					C_MAX_VOCAB + " = MAX(" + C_MAX_VOCAB + ", ?)";
+		
+		/**
+		 * Creates the table and fills it with the current contents of
+		 * the facts table. 
+		 * @param db the database
+		 */
+		public static void onCreate (SQLiteDatabase db)
+		{
+			db.execSQL (SQL_CREATE);
+			db.execSQL (SQL_REBUILD);
+		}
+		
+		/**
+		 * Drops the table
+		 * @param db the database
+		 */		
+		public static void onDrop (SQLiteDatabase db)
+		{
+			db.execSQL (SQL_DROP);
+		}
+		
+		/**
+		 * Recomputes the summary from scratch.
+		 * @param db the database
+		 */
+		public static void rebuild (SQLiteDatabase db)
+		{
+			db.beginTransaction ();
+			try {
+				db.execSQL (SQL_CLEAR);
+				db.execSQL (SQL_REBUILD);
+				db.setTransactionSuccessful ();
+			} finally {
+				db.endTransaction ();
+			}
+		}
+		
+		/**
+		 * Consistency checker. Recomputes the summary from scratch, and compares
+		 * it with the contents of the table.
+		 * @param db the database
+		 * @return <code>true</code> if they match
+		 */
+		public static boolean check (SQLiteDatabase db)
+			throws SQLException
+		{
+			Cursor c, d;
+			int i;
+			
+			c = d = null;
+			try {
+				c = db.query (TABLE, COLUMNS, null, null, null, null, null);
+				d = db.rawQuery (SQL_COMPUTE, new String [0]);
+				if (!c.moveToFirst () || !d.moveToFirst () || c.getCount () != 1)
+					return false;
+				for (i = 0; i < COLUMNS.length; i++)
+					if (c.getInt (i) != d.getInt (i))
+						return false;
+			} finally {
+				if (c != null)
+					c.close ();
+				if (d != null)
+					d.close ();
+			}
+			
+			return true;
+		}
+		
+		/**
+		 * Updates the summary after a new fact has been written.
+		 * @param db the database
+		 * @param unlockedRadicals unlocked radicals
+		 * @param unlockedKanji unlocked kanji
+		 * @param unlockedVocab unlocked vocab items
+		 * @param burnedRadicals burned radicals
+		 * @param burnedKanji burned kanji
+		 * @param burnedVocab burned vocab items
+		 */
+		public static void update (SQLiteDatabase db,
+								   int unlockedRadicals, int unlockedKanji, int unlockedVocab,
+								   int burnedRadicals, int burnedKanji, int burnedVocab)
+		{
+			db.execSQL (SQL_UPDATE, new Object [] {
+				unlockedRadicals, unlockedKanji, unlockedVocab, 
+				unlockedRadicals + burnedRadicals, 
+				unlockedKanji + burnedKanji,
+				unlockedVocab + burnedVocab
+			});
+		}
+		
+		/**
+		 * Builds a core stats object out of a cursor on this table.
+		 * @param c the cursor
+		 * @param levelInfo the contents of the levels table
+		 * @return the stats
+		 */
+		public static CoreStats getCoreStats (Cursor c, Map<Integer, LevelInfo> levelInfo)
+		{
+			if (!c.moveToFirst ())
+				return new CoreStats (0, 0, 0, 0, 0, 0, levelInfo);
+			
+			return new CoreStats (c.getInt (0), c.getInt (1), c.getInt (2),
+								  c.getInt (3), c.getInt (4), c.getInt (5),
+								  levelInfo);
+		}
+	}
+	
+	/**
+	 * A group of write operations, performed in a single transaction.
+	 * Without it, each insert would be a transaction (and an fsync) 
+	 * of its own. The statements are compiled only once, the first time 
+	 * they are needed, and reused for all the rows. Batches can be nested,
+	 * since SQLite transactions can. Typical usage is
+	 * <pre>
+	 * batch = new Batch (db);
+	 * try {
+	 *   ...
+	 *   batch.commit ();
+	 * } finally {
+	 *   batch.close ();
+	 * }
+	 * </pre>
+	 */
+	public static class Batch {
+		
+		/// The database
+		SQLiteDatabase db;
+		
+		/// The statement that adds an empty day to the facts table
+		SQLiteStatement insertDay;
+		
+		/// The statement that replaces a row of the levels table
+		SQLiteStatement setLevel;
+		
+		/**
+		 * Constructor. Starts the transaction.
+		 * @param db the database
+		 */
+		public Batch (SQLiteDatabase db)
+		{
+			this.db = db;
+			
+			db.beginTransaction ();
+		}
+		
+		/**
+		 * Adds an empty record to the facts table, unless the day is
+		 * already there
+		 * @param day the day
+		 */
+		public void insertDay (int day)
+			throws SQLException
+		{
+			if (insertDay == null)
+				insertDay = db.compileStatement (Facts.SQL_INSERT_DAY);
+			
+			insertDay.bindLong (1, day);
+			insertDay.executeInsert ();
+		}
+		
+		/**
+		 * Inserts or replaces a row of the levels table
+		 * @param level the level
+		 * @param day the levelup day
+		 * @param vacation the vacation days
+		 */
+		public void setLevel (int level, int day, int vacation)
+			throws SQLException
+		{
+			if (setLevel == null)
+				setLevel = db.compileStatement (Levels.SQL_REPLACE);
+			
+			setLevel.bindLong (1, level);
+			setLevel.bindLong (2, day);
+			setLevel.bindLong (3, vacation);
+			setLevel.executeInsert ();
+		}
+		
+		/**
+		 * Marks the batch as successful. Changes are committed
+		 * when {@link #close()} is called.
+		 */
+		public void commit ()
+		{
+			db.setTransactionSuccessful ();
+		}
+		
+		/**
+		 * Releases the statements and ends the transaction. If 
+		 * {@link #commit()} was not called, all the changes are rolled back.
+		 */
+		public void close ()
+		{
+			if (insertDay != null)
+				insertDay.close ();
+			if (setLevel != null)
+				setLevel.close ();
+			insertDay = setLevel = null;
+			
+			db.endTransaction ();
+		}
+	}
+	
 	/**
 	 * The DB open helper.  
 	 */
 	static class OpenHelper extends SQLiteOpenHelper {
 		
 		/** DB Version. Hope I'll never need to change it */
-		private static final int VERSION = 2;
+		private static final int VERSION = 3;
 		
 		/** The db file */
 		private static final String NAME = "history.db";
@@ -1310,6 +1594,7 @@ public class HistoryDatabase {
 		{
 			Facts.onCreate (db);
 			Levels.onCreate (db);
+			Summary.onCreate (db);
 		}
 		
 		@Override
@@ -1317,18 +1602,26 @@ public class HistoryDatabase {
 		{
 			if (oldv < 2)
 				Levels.upgradeFromV1 (db);			
+			if (oldv < 3)
+				Summary.onCreate (db);
 			
 		}
 		
 	}
 
-	/** The DB helper */
-	private OpenHelper helper;
+	/** The DB helper, shared by all the instances */
+	private static OpenHelper helper;
+	
+	/** The shared database handle, or <code>null</code> if closed */
+	private static SQLiteDatabase shared;
 	
-	/** The database */
+	/** Number of users of the shared handle */
+	private static int refs;
+	
+	/** The database, if this instance has been opened */
 	SQLiteDatabase db;
 	
-	/** Synchronization */
+	/** Synchronization. Only writers need to hold it */
 	public static final Object MUTEX = new Object ();
 		
 	/**
@@ -1337,42 +1630,116 @@ public class HistoryDatabase {
 	 */
 	public HistoryDatabase (Context ctxt)
 	{
-		helper = new OpenHelper (ctxt);		
+		synchronized (HistoryDatabase.class) {
+			if (helper == null)
+				helper = new OpenHelper (ctxt.getApplicationContext ());
+		}
 	}	
 	
+	/**
+	 * Returns the shared database handle, opening it if needed. Each call
+	 * must be balanced by a call to {@link #release()}. 
+	 * The handle is opened in r/w mode to allow db upgrade and, where
+	 * available, in WAL mode, so readers can go on while the 
+	 * daily job is writing.
+	 * @return the handle 
+	 */	
+	private static synchronized SQLiteDatabase acquire ()
+		throws SQLException
+	{
+		if (shared == null) {
+			shared = helper.getWritableDatabase ();
+			if (Build.VERSION.SDK_INT >= 11)
+				shared.enableWriteAheadLogging ();
+		}
+		refs++;
+		
+		return shared;
+	}
+	
+	/**
+	 * Releases a reference to the shared database handle. The db
+	 * is closed when nobody is using it any more.
+	 */
+	private static synchronized void release ()
+		throws SQLException
+	{
+		if (--refs == 0 && shared != null) {
+			helper.close ();		
+			shared = null;
+		}
+	}
+	
+	/**
+	 * Keeps the shared handle open until {@link #unhold()} is called,
+	 * so chart paging and the other short-lived users do not need to reopen 
+	 * the file each time. The database itself is opened lazily, 
+	 * on the first access. Meant to be tied to the lifecycle of the main activity.
+	 */
+	public void hold ()
+	{
+		synchronized (HistoryDatabase.class) {
+			refs++;
+		}
+	}
+	
+	/**
+	 * Drops the reference taken by {@link #hold()}.
+	 */
+	public void unhold ()
+	{
+		release ();
+	}
+	
 	/**
 	 * Opens the database in r/w mode. This method may be called multiple times
 	 * on the same instance, provided that {@link #close()} is called
-	 * beforehand.
+	 * beforehand. Writers should hold {@link #MUTEX}.
 	 */	
 	public synchronized void openW ()
 		throws SQLException
 	{
 		if (db == null)
-			db = helper.getWritableDatabase ();	
+			db = acquire ();	
 	}
 	
 	/**
 	 * Opens the database in r/o mode. This method may be called multiple times
 	 * on the same instance, provided that {@link #close()} is called
-	 * beforehand.
+	 * beforehand. Since the handle is shared, this is the same as
+	 * {@link #openW()}, but callers need not hold {@link #MUTEX}.
 	 */	
 	public synchronized void openR ()
 		throws SQLException
 	{
 		if (db == null)
-			db = helper.getReadableDatabase ();	
+			db = acquire ();	
 	}
 	
 	/**
-	 * Closes the DB.
+	 * Closes the DB. The shared handle is actually closed only
+	 * if nobody else is using it.
 	 */
-	public void close ()
+	public synchronized void close ()
 		throws SQLException
 	{
-		helper.close ();
+		if (db != null) {
+			db = null;
+			release ();
+		}
 	}
 
+	/**
+	 * Starts a batch of write operations. The DB must have already been
+	 * opened in R/W mode.
+	 * @return the batch, that must be closed by the caller
+	 */
+	public Batch beginBatch ()
+		throws SQLException
+	{
+		return new Batch (db);
+	}
+	
 	/**
 	 * Returns a cursor on the facts table, returning all the rows
 	 * between two given days. Rows are ordered by day, in ascending order.
@@ -1444,14 +1811,21 @@ public class HistoryDatabase {
 	public void insert (UserInformation ui, SRSDistribution srs)
 		throws SQLException
 	{
+		Batch batch;
 		int today;
 		
 		today = ui.getDay ();
 		
-		Facts.fillGap (db, today);
-		Levels.insertOrIgnore (db, ui.level, today, 0);
+		batch = beginBatch ();
+		try {
+			Facts.fillGap (db, today);
+			Levels.insertOrIgnore (db, ui.level, today, 0);
 		
-		Facts.insert (db, today, srs);		
+			Facts.insert (db, today, srs);
+			batch.commit ();
+		} finally {
+			batch.close ();
+		}
 	}
 
 	/**
@@ -1502,17 +1876,32 @@ public class HistoryDatabase {
 	{
 		HistoryDatabase hdb;
 		
-		synchronized (MUTEX) {
-			hdb = new HistoryDatabase (ctxt);
-			hdb.openW ();
-			try {
-				return hdb.getCoreStats (ui);
-			} finally {
-				hdb.close ();
-			}
+		hdb = new HistoryDatabase (ctxt);
+		hdb.openR ();
+		try {
+			return hdb.getCoreStats (ui);
+		} finally {
+			hdb.close ();
 		}
 	}
 	
+	/**
+	 * Checks that the summary table is consistent with the facts table,
+	 * and rebuilds it otherwise. When this method is called, the DB must 
+	 * have already been opened in R/W mode.
+	 * @return <code>true</code> if the summary was consistent
+	 */
+	public boolean checkSummary ()
+		throws SQLException
+	{
+		if (Summary.check (db))
+			return true;
+		
+		Summary.rebuild (db);
+		
+		return false;
+	}
+	
 	/**
 	 * Returns the levelups hashtable
 	 * @return the levels-day mapping
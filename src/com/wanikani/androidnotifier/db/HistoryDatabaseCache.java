@@ -1,21 +1,22 @@
 package com.wanikani.androidnotifier.db;
 
 import java.util.Collections;
-import java.util.Comparator;
-import java.util.Date;
-import java.util.Hashtable;
+import java.util.HashSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
 
 import android.content.Context;
 import android.database.Cursor;
 import android.database.SQLException;
 import android.os.AsyncTask;
+import android.os.Build;
 
 import com.wanikani.androidnotifier.db.HistoryDatabase.FactType;
 import com.wanikani.androidnotifier.graph.Pager;
 import com.wanikani.androidnotifier.graph.Pager.Interval;
-import com.wanikani.wklib.SRSDistribution;
 
 /* 
  *  Copyright (c) 2013 Alberto Cuda
@@ -48,9 +49,11 @@ import com.wanikani.wklib.SRSDistribution;
 public class HistoryDatabaseCache {
 
 	/**
-	 * A subset of a page with homogeneous row types.
+	 * A subset of a page with homogeneous row types. 
+	 * The samples are not copied here: a segment is a slice of the 
+	 * {@link FactsStore} columns, starting at {@link #getOffset()}.
 	 */
-	public class PageSegment {
+	public static class PageSegment {
 		
 		/** This segment's interval */
 		public Interval interval;
@@ -58,9 +61,10 @@ public class HistoryDatabaseCache {
 		/** The type of info contained */
 		public HistoryDatabase.FactType type;
 		
-		/** The actual data. If data is missing (i.e. {@link #type} is
-		 *  {@link FactType#MISSING}), this field is <code>null</code> */
-		public List<SRSDistribution> srsl;
+		/** The store holding the actual data. If data is missing 
+		 *  (i.e. {@link #type} is {@link FactType#MISSING}), this field
+		 *  is <code>null</code> */
+		FactsStore store;
 		
 		/**
 		 * Constructor.
@@ -69,12 +73,47 @@ public class HistoryDatabaseCache {
 		 * @param type facts type
 		 */
 		public PageSegment (int from, int to, HistoryDatabase.FactType type)
+		{
+			this (from, to, type, null);
+		}
+		
+		/**
+		 * Constructor.
+		 * @param from start of segment
+		 * @param to end of segment
+		 * @param type facts type
+		 * @param store the store holding the samples
+		 */
+		public PageSegment (int from, int to, HistoryDatabase.FactType type, FactsStore store)
 		{
 			interval = new Interval (from, to);
 			this.type = type;
 			if (type == HistoryDatabase.FactType.PARTIAL ||
 				type == HistoryDatabase.FactType.COMPLETE)
-				srsl = new Vector<SRSDistribution> ();
+				this.store = store;
+		}
+		
+		/**
+		 * Returns a column of samples. The segment's data begins at
+		 * {@link #getOffset()}. The array must not be modified.
+		 * @param level the SRS level (e.g. {@link FactsStore#GURU})
+		 * @param kind the item type (e.g. {@link FactsStore#KANJI}), 
+		 * 	or {@link FactsStore#TOTAL}
+		 * @return the samples
+		 */
+		public float [] getColumn (int level, int kind)
+		{
+			return store.getColumn (level, kind);
+		}
+		
+		/**
+		 * Returns the index of the first sample of this segment
+		 * in the arrays returned by {@link #getColumn(int, int)}
+		 * @return the offset
+		 */
+		public int getOffset ()
+		{
+			return interval.start;
 		}
 	}
 	
@@ -87,9 +126,6 @@ public class HistoryDatabaseCache {
 	 */
 	public class Page {
 		
-		/** The last time this pages has been accessed */
-		Date lad;
-		
 		/** The interval of time covered by this page */
 		Interval interval;
 		
@@ -104,35 +140,8 @@ public class HistoryDatabaseCache {
 		{
 			this.interval = interval;
 			
-			lad = new Date ();
-			
 			segments = new Vector<PageSegment> (1);
 		}
-		
-		/**
-		 * Should be called each time this page is accessed, to make
-		 * sure the access timestamp is freshened.
-		 */
-		public void access ()
-		{
-			lad = new Date ();
-		}		
-	}
-	
-	/**
-	 * A comparator that sorts pages by their last access time
-	 */
-	private static class PageAgeComparator implements Comparator<Page> {
-		
-		/** Static instance. No need to create new instances */
-		public static PageAgeComparator INSTANCE = new PageAgeComparator ();
-		
-		@Override
-		public int compare (Page p1, Page p2)
-		{
-			return - p1.lad.compareTo (p2.lad);
-		}
-		
 	}
 	
 	/**
@@ -235,13 +244,21 @@ public class HistoryDatabaseCache {
 	}
 	
 	/**
-	 * The task that performs actual data retrieval.
+	 * The task that performs actual data retrieval. It loads a set
+	 * of contiguous pages with one query, so prefetching adjacent pages 
+	 * costs no extra round trip.
 	 */
-	private class LoadPageTask extends AsyncTask<Interval, Void, Page> {
+	private class LoadPageTask extends AsyncTask<Interval, Void, List<Page>> {
 
 		/** The context */
 		Context ctxt;
 		
+		/** The cache generation at the time the task was created */
+		int generation;
+		
+		/** The store to fill, which is replaced when the cache is flushed */
+		FactsStore store;
+		
 		/**
 		 * Constructor
 		 * @param ctxt the context
@@ -249,74 +266,127 @@ public class HistoryDatabaseCache {
 		public LoadPageTask (Context ctxt)
 		{
 			this.ctxt = ctxt;
+			
+			generation = HistoryDatabaseCache.this.generation;
+			store = HistoryDatabaseCache.this.store;
+		}
+		
+		/**
+		 * Starts the task. On platforms where tasks are executed
+		 * serially by default, it makes sure that they run in parallel
+		 * @param intervals the (contiguous, ascending) pages to load
+		 */
+		public void start (Interval... intervals)
+		{
+			if (Build.VERSION.SDK_INT >= 11)
+				executeOnExecutor (AsyncTask.THREAD_POOL_EXECUTOR, intervals);
+			else
+				execute (intervals);
 		}
 		
 		@Override
-		protected Page doInBackground (Interval... interval)
+		protected List<Page> doInBackground (Interval... intervals)
 		{
-			HistoryDatabase.FactType ltype, type;
 			HistoryDatabase hdb;
-			PageSegment segment;
+			List<Page> ans;
 			Page page;
+			boolean more;
 			Cursor c;
-			int i, day;
 			
-			synchronized (HistoryDatabase.MUTEX) { 
-				page = new Page (interval [0]);
-				hdb = new HistoryDatabase (ctxt);
-				c = null;
-				try {
-					i = interval [0].start;
-					hdb.openR ();
-					c = hdb.selectFacts (interval [0].start, interval [0].stop);
-					ltype = null;
-					segment = null;
-					day = interval [0].start - 1; /* A safe default in case we got an empty set */
-					while (c.moveToNext ()) {
-						day = HistoryDatabase.Facts.getDay (c);
-						if (day != i) {
-							page.segments.add (new PageSegment (i, day - 1, 
-								                            	ltype = HistoryDatabase.FactType.MISSING));
-							i = day;
-						}
-						
-						type = HistoryDatabase.Facts.getType (c);
-						if (type != ltype) {
-							ltype = type;
-							segment = new PageSegment (i, i, type);
-							page.segments.add (segment);
-						}
-						if (type != HistoryDatabase.FactType.MISSING)
-							segment.srsl.add (HistoryDatabase.Facts.getSRSDistribution (c));
-					
-						segment.interval.stop = i;
-						i++;
-					}
-				
-					if (day < interval [0].stop)
-						page.segments.add (new PageSegment (day + 1, interval [0].stop, 
-										   ltype = HistoryDatabase.FactType.MISSING));
-				} catch (SQLException e) {
-					return dummyPage (interval [0]);
-				} finally {
-					if (c != null)					
-						c.close ();
-					hdb.close ();
+			ans = new Vector<Page> (intervals.length);
+			hdb = new HistoryDatabase (ctxt);
+			c = null;
+			try {
+				hdb.openR ();
+				c = hdb.selectFacts (intervals [0].start, intervals [intervals.length - 1].stop);
+				more = c.moveToNext ();
+				for (Interval interval : intervals) {
+					page = new Page (interval);
+					more = load (page, c, more);
+					ans.add (page);
 				}
+			} catch (SQLException e) {
+				ans.clear ();
+				for (Interval interval : intervals)
+					ans.add (dummyPage (interval));
+			} finally {
+				if (c != null)					
+					c.close ();
+				hdb.close ();
 			}
 			
-			return page;
+			return ans;
 		}	
 		
+		/**
+		 * Fills a page with the rows returned by the cursor.
+		 * @param page the page to fill
+		 * @param c the cursor, positioned on the first row not consumed yet
+		 * @param more <code>false</code> if the cursor is exhausted
+		 * @return <code>false</code> if the cursor is exhausted
+		 */
+		private boolean load (Page page, Cursor c, boolean more)
+		{
+			HistoryDatabase.FactType ltype, type;
+			PageSegment segment;
+			int i, day;
+
+			i = page.interval.start;
+			ltype = null;
+			segment = null;
+			while (more) {
+				day = HistoryDatabase.Facts.getDay (c);
+				if (day > page.interval.stop)
+					break;
+				
+				if (day != i) {
+					page.segments.add (new PageSegment (i, day - 1, 
+						                            	ltype = HistoryDatabase.FactType.MISSING));
+					i = day;
+				}
+				
+				type = HistoryDatabase.Facts.getType (c);
+				if (type != ltype) {
+					ltype = type;
+					segment = new PageSegment (i, i, type, store);
+					page.segments.add (segment);
+				}
+				if (type != HistoryDatabase.FactType.MISSING)
+					store.put (i, HistoryDatabase.Facts.getSRSDistribution (c));
+			
+				segment.interval.stop = i;
+				i++;
+				more = c.moveToNext ();
+			}
+			
+			if (i <= page.interval.stop)
+				page.segments.add (new PageSegment (i, page.interval.stop, 
+								   HistoryDatabase.FactType.MISSING));
+			
+			return more;
+		}
+		
 		@Override
-		protected void onPostExecute (Page page)
+		protected void onPostExecute (List<Page> pages)
 		{
-			pageAvailable (page);
+			for (Page page : pages) {
+				/* If the cache was flushed meanwhile, pages are stale */
+				if (generation == HistoryDatabaseCache.this.generation) {
+					loading.remove (page.interval.start);
+					pageAvailable (page);
+				} else
+					broadcast (page);
+			}
 		}
 	}
 	
+	/** The samples of all the pages loaded so far. This is what 
+	 *  takes memory: pages only hold the boundaries of their segments,
+	 *  so they are never evicted */
+	FactsStore store;
+	
 	/** The cached pages */
-	Hashtable<Integer, Page> pages;
+	Map<Integer, Page> pages;
 
 	/** The context */
 	Context ctxt;
@@ -324,18 +394,26 @@ public class HistoryDatabaseCache {
 	/** Registered datasouces */
 	List<DataSource> dsources;
 	
-	/** Number of pages per datasource after an LRU cleanup */
-	private static final int PAGES_PER_SOURCE_LO = 4;
+	/** Start of the pages being loaded */
+	Set<Integer> loading;
+	
+	/** Incremented each time the cache is flushed */
+	int generation;
 	
-	/** Number of pages per datasource that trigger a LRU cleanup */
-	private static final int PAGES_PER_SOURCE_HI = 6;
+	/** Start of the last requested page, to guess the scroll direction */
+	int last;
+	
+	/** Number of pages to prefetch in the scroll direction */
+	static final int PREFETCH_PAGES = 2;
 	
 	/** 
 	 * Constructor.
 	 */
 	public HistoryDatabaseCache ()
 	{
-		pages = new Hashtable<Integer, Page> ();
+		pages = new HashMap<Integer, Page> ();
+		loading = new HashSet<Integer> ();
+		store = new FactsStore ();
 		dsources = new Vector<DataSource> ();
 	}	
 	
@@ -367,21 +445,88 @@ public class HistoryDatabaseCache {
 	
 	/**
 	 * Retrieves a page, looking on the page cache first.
+	 * In any case, the next pages in the scroll direction are
+	 * prefetched, if they are not cached yet.
 	 * @param dsource the requesting data source
 	 * @param interval the requeted interval
 	 */
 	private void getPage (DataSource dsource, Interval interval)
 	{
+		int direction;
 		Page page;
 		
+		direction = interval.start < last ? -1 : 1;
+		last = interval.start;
+		
 		page = pages.get (interval.start);
-		if (page != null) {
-			page.access ();
+		if (page != null)
 			dsource.pageAvailable (page);
-		} else if (ctxt != null)
-			new LoadPageTask (ctxt).execute (interval);
-		else
+		else if (ctxt == null) {
 			pageAvailable (dummyPage (interval));
+			return;
+		}
+		
+		if (ctxt != null)
+			load (interval, direction);
+	}
+	
+	/**
+	 * Loads the requested page and the following ones, in the
+	 * given direction, with one query.
+	 * @param interval the requested page
+	 * @param direction <code>1</code> when scrolling forward, <code>-1</code>
+	 * 	when scrolling backward
+	 */
+	private void load (Interval interval, int direction)
+	{
+		List<Interval> range;
+		
+		range = getRange (interval, direction, PREFETCH_PAGES, pages.keySet (), loading);
+		if (range.isEmpty ())
+			return;
+		
+		for (Interval r : range)
+			loading.add (r.start);
+		
+		new LoadPageTask (ctxt).start (range.toArray (new Interval [range.size ()]));
+	}
+	
+	/**
+	 * Chooses the pages to load when a page is requested: the requested page 
+	 * and the next ones in the scroll direction. Pages already cached or being 
+	 * loaded are skipped, so the result is a contiguous range.
+	 * @param interval the requested page
+	 * @param direction <code>1</code> when scrolling forward, <code>-1</code>
+	 * 	when scrolling backward
+	 * @param prefetch the number of pages to prefetch
+	 * @param cached the start of the pages in the cache
+	 * @param loading the start of the pages being loaded
+	 * @return the pages to load, in ascending order. May be empty
+	 */
+	static List<Interval> getRange (Interval interval, int direction, int prefetch, 
+									Set<Integer> cached, Set<Integer> loading)
+	{
+		List<Interval> range;
+		int i, start, size;
+		
+		size = interval.getSize ();
+		range = new Vector<Interval> (prefetch + 1);
+		for (i = 0; i <= prefetch; i++) {
+			start = interval.start + direction * i * size;
+			if (start < 0)
+				break;
+			if (cached.contains (start) || loading.contains (start)) {
+				if (range.isEmpty ())
+					continue;
+				break;
+			}
+			range.add (new Interval (start, start + size - 1));
+		}
+		
+		if (direction < 0)
+			Collections.reverse (range);
+		
+		return range;
 	}
 	
 	/**
@@ -402,36 +547,24 @@ public class HistoryDatabaseCache {
 	/**
 	 * Called by the task implementation after the page has been retrieved
 	 * from the DB. Broadcasts this new page to all registered datasources
-	 * and stores the page into the cache. 
+	 * and stores the page into the cache.
 	 * @param page the page
 	 */
 	private void pageAvailable (Page page)
 	{
-		makeRoom ();
 		pages.put (page.interval.start, page);
-		for (DataSource dsource : dsources)
-			dsource.pageAvailable (page);
+		
+		broadcast (page);
 	}
 	
 	/**
-	 * Called before inserting a page into the cache.
-	 * If the cache size has been exceeded, a simple LRU cleanup
-	 * is performed.
+	 * Hands a page to all the registered datasources
+	 * @param page the page
 	 */
-	private void makeRoom ()
+	private void broadcast (Page page)
 	{
-		Vector<Page> v;
-		int i, expected;
-		
-		expected = PAGES_PER_SOURCE_HI * dsources.size () - 1;
-		if (pages.size () > expected) {
-			expected = PAGES_PER_SOURCE_LO * dsources.size () - 1;
-			v = new Vector<Page> (pages.values ());
-			Collections.sort (v, PageAgeComparator.INSTANCE);
-			pages.clear ();
-			for (i = 0; i < expected; i++)
-				pages.put (v.get (i).interval.start, v.get (i));
-		}
+		for (DataSource dsource : dsources)
+			dsource.pageAvailable (page);
 	}
 	
 	/**
@@ -440,5 +573,8 @@ public class HistoryDatabaseCache {
 	public void flush ()
 	{
 		pages.clear ();
+		loading.clear ();
+		generation++;
+		store = new FactsStore ();
 	}
 }
@@ -1,6 +1,8 @@
 package com.wanikani.androidnotifier.db;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -14,6 +16,7 @@ import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
 
 import com.wanikani.wklib.Item;
 import com.wanikani.wklib.Item.Type;
@@ -108,6 +111,15 @@ public class ItemsDatabase {
 		/** User synonyms */
 		private static final String C_USER_SYNONYMS = "user_synonyms";
 		
+		/** Natural key, unique within each table */
+		private static final String C_KEY = "key";
+		
+		/** Hash of the contents, to skip rewriting unchanged rows */
+		private static final String C_HASH = "hash";
+		
+		/** Toxicity: total number of errors, or -1 if burned or not unlocked */
+		private static final String C_ERRORS = "errors";
+		
 		/** The SQL create statement */
 		protected static final String SQL_CREATE_COLUMNS = 
 						C_ID + " INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, " +
@@ -132,7 +144,11 @@ public class ItemsDatabase {
 						
 						C_READING_NOTE + " TEXT NULL, " +
 						C_MEANING_NOTE + " TEXT NULL, " +
-						C_USER_SYNONYMS + " TEXT NULL";
+						C_USER_SYNONYMS + " TEXT NULL, " +
+						
+						C_KEY + " TEXT NOT NULL, " +
+						C_HASH + " INTEGER NOT NULL, " +
+						C_ERRORS + " INTEGER NOT NULL";
 		
 		protected static final String SQL_INSERT_COLUMNS = 
 					C_CHARACTER + ", " +
@@ -156,12 +172,50 @@ public class ItemsDatabase {
 
 					C_READING_NOTE + ", " +
 					C_MEANING_NOTE + ", " +
-					C_USER_SYNONYMS;
+					C_USER_SYNONYMS + ", " +
+					
+					C_KEY + ", " +
+					C_HASH + ", " +
+					C_ERRORS;
+		
+		/* Rows are decoded by position: these indexes must match
+		 * the order of the columns in projection () */
+		private static final int I_CHARACTER = 0;
+		
+		private static final int I_MEANING = 1;
+		
+		private static final int I_LEVEL = 2;
+		
+		private static final int I_SRS = 3;
+		
+		private static final int I_UNLOCKED_DATE = 4;
+		
+		private static final int I_AVAILABLE_DATE = 5;
+		
+		private static final int I_BURNED_DATE = 6;
+		
+		private static final int I_BURNED = 7;
+		
+		/** First of the four reading performance columns */
+		private static final int I_READING = 8;
+		
+		/** First of the four meaning performance columns */
+		private static final int I_MEANING_PERF = 12;
+		
+		private static final int I_READING_NOTE = 16;
+		
+		private static final int I_MEANING_NOTE = 17;
+		
+		private static final int I_USER_SYNONYMS = 18;
+		
+		/** Index of the first subclass-specific column */
+		protected static final int I_EXTRA = 19;
 		
 		protected static final String SQL_INSERT_ARGS =
 					"?, ?, ?, ?, ?, ?, ?, ?,"+
 				    "?, ?, ?, ?, " +
 				    "?, ?, ?, ?, " +
+				    "?, ?, ?, " +
 				    "?, ?, ?";
 
 		private static final String I_TABLE_PFX = "inv_";
@@ -190,6 +244,36 @@ public class ItemsDatabase {
 		private static final String SQL_DROP_IDX_2 =
 				"DROP INDEX IF EXISTS %s_AVAILABLE";
 		
+		private static final String SQL_IDX_3 =
+			 	"CREATE UNIQUE INDEX %1$s_KEY ON %1$s (" + C_KEY + ")";
+	
+		private static final String SQL_DROP_IDX_3 =
+				"DROP INDEX IF EXISTS %s_KEY";
+		
+		private static final String SQL_IDX_AVAILABLE =
+				"CREATE INDEX %1$s_AVAILABLE ON %1$s (" + C_AVAILABLE_DATE + ")";
+
+		private static final String SQL_IDX_SRS =
+				"CREATE INDEX %1$s_SRS ON %1$s (" + C_SRS + ")";
+
+		private static final String SQL_DROP_IDX_SRS =
+				"DROP INDEX IF EXISTS %s_SRS";
+
+		/* Same as Item.SortByToxicity. Ties on the unlock date, which the
+		 * stable Java sort leaves in API order, are broken by level */
+		private static final String ORDER_TOXIC =
+				C_ERRORS + " DESC, " + C_UNLOCKED_DATE + " IS NULL, " + C_UNLOCKED_DATE + ", " + 
+				C_LEVEL + ", " + C_ID;
+		
+		private static final String WHERE_AVAILABLE_IN =
+				C_BURNED + " = 0 AND " + C_AVAILABLE_DATE + " >= ? AND " + C_AVAILABLE_DATE + " < ?";
+		
+		private static final String WHERE_SRS_IS =
+				C_SRS + " = ?";
+		
+		private static final String SQL_DELETE_ID =
+				"DELETE FROM %s WHERE " + C_ID + " = ?";
+		
 		private static final String WHERE_LEVEL_IS =
 					C_LEVEL + " =  ?";
 		
@@ -198,6 +282,17 @@ public class ItemsDatabase {
 
 		private static final String SEPARATOR = "/";
 		
+		/* Same as LevelData.updateNextChange, for each level in the inventory */
+		private static final String SQL_INVENTORY =
+					"SELECT i." + C_I_LEVEL + ", i." + C_I_DATE + ", i." + C_I_ETAG + ", " +
+					"(SELECT MIN (CASE WHEN " + C_SRS + " IS NULL OR " + 
+						C_AVAILABLE_DATE + " IS NULL OR " + 
+						C_AVAILABLE_DATE + " <= i." + C_I_DATE + " " +
+						"THEN i." + C_I_DATE + " + " + LevelData.RECHECK_TIME + " " +
+						"ELSE " + C_AVAILABLE_DATE + " END) " +
+					"FROM %1$s t WHERE t." + C_LEVEL + " = i." + C_I_LEVEL + " AND t." + C_BURNED + " = 0) " +
+					"FROM %2$s i WHERE i." + C_I_LEVEL + " IN (%3$s)";
+		
 		private static final String SQL_UPDATE_INVENTORY =
 					"INSERT OR REPLACE INTO %s (" + 
 						C_I_LEVEL + ", " +
@@ -210,10 +305,63 @@ public class ItemsDatabase {
 		
 		public abstract String getInsertStatement ();
 		
+		/**
+		 * Returns the subclass-specific columns, in the order
+		 * they are expected by {@link #buildItem(Cursor)}, starting
+		 * from {@link #I_EXTRA}.
+		 * @return the columns
+		 */
+		protected abstract String [] getExtraColumns ();
+		
+		/** The full projection, built lazily */
+		private String projection [];
+		
+		String [] projection ()
+		{
+			String common [], extra [], ans [];
+			
+			if (projection == null) {
+				common = new String [] {
+					C_CHARACTER,
+					C_MEANING,
+					C_LEVEL,
+					C_SRS,
+					C_UNLOCKED_DATE,
+					C_AVAILABLE_DATE,
+					C_BURNED_DATE,
+					C_BURNED,
+					
+					C_READING_CORRECT,
+					C_READING_INCORRECT,
+					C_READING_MAX_STREAK,
+					C_READING_CURRENT_STREAK,
+
+					C_MEANING_CORRECT,
+					C_MEANING_INCORRECT,
+					C_MEANING_MAX_STREAK,
+					C_MEANING_CURRENT_STREAK,
+
+					C_READING_NOTE,
+					C_MEANING_NOTE,
+					C_USER_SYNONYMS
+				};
+				extra = getExtraColumns ();
+				ans = new String [I_EXTRA + extra.length];
+				System.arraycopy (common, 0, ans, 0, I_EXTRA);
+				System.arraycopy (extra, 0, ans, I_EXTRA, extra.length);
+				projection = ans;
+			}
+			
+			return projection;
+		}
+		
 		public void onCreate (SQLiteDatabase db)
 		{
 			db.execSQL (getCreateStatement ());
 			db.execSQL (String.format (SQL_IDX_1, getTable ()));
+			db.execSQL (String.format (SQL_IDX_3, getTable ()));
+			db.execSQL (String.format (SQL_IDX_AVAILABLE, getTable ()));
+			db.execSQL (String.format (SQL_IDX_SRS, getTable ()));
 			db.execSQL (String.format (SQL_CREATE_INVENTORY, inventory ()));
 		}
 
@@ -221,6 +369,8 @@ public class ItemsDatabase {
 		{
 			db.execSQL (String.format (SQL_DROP_IDX_1, getTable ()));
 			db.execSQL (String.format (SQL_DROP_IDX_2, getTable ()));
+			db.execSQL (String.format (SQL_DROP_IDX_3, getTable ()));
+			db.execSQL (String.format (SQL_DROP_IDX_SRS, getTable ()));
 			db.execSQL (String.format (SQL_DROP, getTable ()));
 			db.execSQL (String.format (SQL_DROP, inventory ()));
 		}
@@ -235,6 +385,7 @@ public class ItemsDatabase {
 		{	
 			String columns [], args [];			
 			ItemLibrary<T> lib;
+			SQLiteDatabase db;
 			LevelData<T> ld;
 			Cursor c;
 			T item;
@@ -242,32 +393,30 @@ public class ItemsDatabase {
 			columns = new String [] { C_I_DATE, C_I_ETAG };
 			args = new String [] { Integer.toString (level) };
 
-			synchronized (MUTEX) {
-				/* Must use openW to allow db upgrade */
-				openW ();
+			/* No lock needed: readers may run concurrently with each other and with put */
+			db = acquire ();
+			c = null;
+			try {
+				c = db.query (inventory (), columns, WHERE_LEVEL_IS, args, null, null, null);
+				if (!c.moveToFirst ())
+					return new LevelData<T> ();
+				lib = new ItemLibrary<T> ();
+				ld = new LevelData<T> (new Date (c.getLong (0)), c.getString (1), lib);
+				c.close ();
+				
 				c = null;
-				try {
-					c = db.query (inventory (), columns, WHERE_LEVEL_IS, args, null, null, null);
-					if (!c.moveToFirst ())
-						return new LevelData<T> ();
-					lib = new ItemLibrary<T> ();
-					ld = new LevelData<T> (new Date (c.getLong (0)), c.getString (1), lib);
-					c.close ();
-					
-					c = null;
-					c = db.query (getTable (), null, WHERE_LEVEL_IS, args, null, null, null);
-					while (c.moveToNext ()) {
-						item = buildItem (c);
-						item.fixup ();
-						lib.list.add (item);
-					}
-					
-				} finally {
-					if (c != null)
-						c.close ();
-					close ();
+				c = db.query (getTable (), projection (), WHERE_LEVEL_IS, args, null, null, null);
+				while (c.moveToNext ()) {
+					item = buildItem (c);
+					item.fixup ();
+					lib.list.add (item);
 				}
+				ld.updateNextChange ();
 				
+			} finally {
+				if (c != null)
+					c.close ();
+				release ();
 			}
 			
 			return ld;
@@ -287,11 +436,60 @@ public class ItemsDatabase {
 			return lset;
 		}
 		
+		private String getLSet (int levels [])
+		{
+			StringBuffer sb;
+			int i;
+			
+			sb = new StringBuffer ();
+			for (i = 0; i < levels.length; i++) {
+				if (i > 0)
+					sb.append (",");
+				sb.append (levels [i]);
+			}
+
+			return sb.toString ();
+		}
+		
+		/**
+		 * Looks up the date, the etag and the next change of some levels, 
+		 * without loading their items. Levels that are cached are replaced
+		 * by a {@link LevelData} whose <code>lib</code> is <code>null</code>.
+		 * @param data the levels to look up, as returned by 
+		 * 	{@link LevelData#createMap(int[])}
+		 */
+		public void getInventory (Map<Integer, LevelData <T>> data)
+		{
+			SQLiteDatabase db;
+			String sql;
+			Cursor c;
+			
+			if (data.isEmpty ())
+				return;
+			
+			sql = String.format (SQL_INVENTORY, getTable (), inventory (), getLSet (data.keySet ()));
+			
+			db = acquire ();
+			c = null;
+			try {
+				c = db.rawQuery (sql, null);
+				while (c.moveToNext ())
+					data.put (c.getInt (0), 
+							  new LevelData<T> (new Date (c.getLong (1)), c.getString (2), 
+									  			getDate (c, 3)));
+			} finally {
+				if (c != null)
+					c.close ();
+				release ();
+			}
+		}
+		
 		@Override
 		public void get (Map<Integer, LevelData <T>> data)
 		{	
 			String columns [];			
 			ItemLibrary<T> lib;
+			SQLiteDatabase db;
 			LevelData<T> ld;
 			String lset;
 			Cursor c;
@@ -304,42 +502,46 @@ public class ItemsDatabase {
 			
 			columns = new String [] { C_I_DATE, C_I_ETAG, C_I_LEVEL };
 
-			synchronized (MUTEX) {
-				/* Must use openW to allow db upgrade */
-				openW ();
+			db = acquire ();
+			c = null;
+			try {
+				c = db.query (inventory (), columns, String.format (WHERE_LEVEL_IN, lset), null, null, null, null);
+				while (c.moveToNext ()) {
+					lib = new ItemLibrary<T> ();
+					ld = new LevelData<T> (new Date (c.getLong (0)), c.getString (1), lib);
+					data.put (c.getInt (2), ld);
+				}
+				c.close ();
+				
 				c = null;
-				try {
-					c = db.query (inventory (), columns, String.format (WHERE_LEVEL_IN, lset), null, null, null, null);
-					while (c.moveToNext ()) {
-						lib = new ItemLibrary<T> ();
-						ld = new LevelData<T> (new Date (c.getLong (0)), c.getString (1), lib);
-						data.put (c.getInt (2), ld);
-					}
+				c = db.query (getTable (), projection (), String.format (WHERE_LEVEL_IN, lset), null, null, null, null);
+				while (c.moveToNext ()) {
+					item = buildItem (c);
+					item.fixup ();
+					ld = data.get (item.level);
+					if (ld.lib != null)	/* May happen if inventory is not synch'd */
+						ld.lib.add (item);
+				}
+				for (LevelData<T> l : data.values ())
+					if (l.lib != null)
+						l.updateNextChange ();
+			} finally {
+				if (c != null)
 					c.close ();
-					
-					c = null;
-					c = db.query (getTable (), null, String.format (WHERE_LEVEL_IN, lset), null, null, null, null);
-					while (c.moveToNext ()) {
-						item = buildItem (c);
-						item.fixup ();
-						ld = data.get (item.level);
-						if (ld.lib != null)	/* May happen if inventory is not synch'd */
-							ld.lib.add (item);
-					}
-				} finally {
-					if (c != null)
-						c.close ();
-					close ();
-				}				
+				release ();
 			}
 		}
 		
 		@Override
 		public void put (LevelData <T> data)
 		{
-			SQLiteStatement stmt;
+			SQLiteStatement stmt, dstmt;
+			Map<String, long []> rows;
 			Set<Integer> levels;
+			SQLiteDatabase db;
+			long row [];
 			String lset;
+			Cursor c;
 			
 			levels = new HashSet<Integer> ();
 			for (T item : data.lib.list)
@@ -347,9 +549,11 @@ public class ItemsDatabase {
 
 			lset = getLSet (levels);
 			
+			/* Writers are still serialized */
 			synchronized (MUTEX) {
-				stmt = null;
-				openW ();
+				stmt = dstmt = null;
+				c = null;
+				db = acquire ();
 				db.beginTransaction ();
 				try {
 					stmt = db.compileStatement (String.format (SQL_UPDATE_INVENTORY, inventory ()));
@@ -364,33 +568,252 @@ public class ItemsDatabase {
 					}
 					stmt.close ();
 					stmt = null;
-										
-					db.delete (getTable (), String.format (WHERE_LEVEL_IN, lset), null);
+					
+					/* Key -> (id, hash) of what we currently have */
+					rows = new HashMap<String, long []> ();
+					c = db.query (getTable (), new String [] { C_ID, C_KEY, C_HASH }, 
+								  String.format (WHERE_LEVEL_IN, lset), null, null, null, null);
+					while (c.moveToNext ())
+						rows.put (c.getString (1), new long [] { c.getLong (0), c.getLong (2) });
+					c.close ();
+					c = null;
+					
+					/* Rows that did not change are left alone. Items that moved
+					 * from a level that is not being updated are taken care of 
+					 * by the unique index on the key */
 					stmt = db.compileStatement (getInsertStatement ());
 					for (T item : data.lib.list) {
+						row = rows.remove (getKey (item));
+						if (row != null && row [1] == contentHash (item))
+							continue;
 						fillStatement (stmt, item);
 						stmt.executeInsert ();
 					}
-						
+					
+					/* Whatever is left has disappeared from these levels */
+					if (!rows.isEmpty ()) {
+						dstmt = db.compileStatement (String.format (SQL_DELETE_ID, getTable ()));
+						for (long r [] : rows.values ()) {
+							dstmt.bindLong (1, r [0]);
+							dstmt.execute ();
+						}
+					}
 					
 					db.setTransactionSuccessful ();
 				} finally {
+					if (c != null)
+						c.close ();
 					if (stmt != null)
 						stmt.close ();
+					if (dstmt != null)
+						dstmt.close ();
 					db.endTransaction ();
-					close ();
+					release ();
 				}				
 			}
 			
 		}
 		
-		protected abstract T buildItem (Cursor c);
+		/**
+		 * Returns the top toxic items of some levels, i.e. the first ones
+		 * {@link Item.SortByToxicity#INSTANCE} would return. Burned and locked 
+		 * items are not excluded, they simply come last. 
+		 * @param levels the levels
+		 * @param n the maximum number of items
+		 * @return the items, in toxicity order
+		 */
+		public List<T> getToxic (int levels [], int n)
+		{
+			if (levels.length == 0)
+				return new ArrayList<T> ();
+			
+			return query (String.format (WHERE_LEVEL_IN, getLSet (levels)), null, 
+						  ORDER_TOXIC, Integer.toString (n));
+		}
 		
-		protected Date getDate (Cursor c, String col)
+		/**
+		 * Returns the unburned items that become available in a given interval.
+		 * @param from the start of the interval (inclusive)
+		 * @param to the end of the interval (exclusive)
+		 * @return the items, sorted by availability date
+		 */
+		public List<T> getAvailable (Date from, Date to)
 		{
-			int idx;
+			String args [];
+			
+			args = new String [] { Long.toString (from.getTime ()), Long.toString (to.getTime ()) };
+			
+			return query (WHERE_AVAILABLE_IN, args, C_AVAILABLE_DATE, null);
+		}
+		
+		/**
+		 * Returns the times when unburned items become available, in a 
+		 * given interval. This is much cheaper than {@link #getAvailable(Date, Date)}, 
+		 * since no item is built.
+		 * @param from the start of the interval (inclusive)
+		 * @param to the end of the interval (exclusive)
+		 * @return the times, in ascending order
+		 */
+		public long [] getAvailableTimes (Date from, Date to)
+		{
+			SQLiteDatabase db;
+			String args [];
+			long ans [];
+			Cursor c;
+			int i;
+			
+			args = new String [] { Long.toString (from.getTime ()), Long.toString (to.getTime ()) };
+			
+			db = acquire ();
+			c = null;
+			try {
+				c = db.query (getTable (), new String [] { C_AVAILABLE_DATE }, 
+							  WHERE_AVAILABLE_IN, args, null, null, C_AVAILABLE_DATE);
+				ans = new long [c.getCount ()];
+				i = 0;
+				while (c.moveToNext () && i < ans.length)
+					ans [i++] = c.getLong (0);
+			} finally {
+				if (c != null)
+					c.close ();
+				release ();
+			}
+			
+			return ans;
+		}
+		
+		/**
+		 * Returns all the items at a given SRS level.
+		 * @param srs the SRS level
+		 * @return the items
+		 */
+		public List<T> getBySRS (SRSLevel srs)
+		{
+			return query (WHERE_SRS_IS, new String [] { Integer.toString (srs.ordinal ()) }, null, null);
+		}
+		
+		private List<T> query (String where, String args [], String order, String limit)
+		{
+			SQLiteDatabase db;
+			List<T> ans;
+			Cursor c;
+			T item;
+			
+			db = acquire ();
+			c = null;
+			try {
+				c = db.query (getTable (), projection (), where, args, null, null, order, limit);
+				ans = new ArrayList<T> (c.getCount ());
+				while (c.moveToNext ()) {
+					item = buildItem (c);
+					item.fixup ();
+					ans.add (item);
+				}
+			} finally {
+				if (c != null)
+					c.close ();
+				release ();
+			}
+			
+			return ans;
+		}
+		
+		private int getErrors (T item)
+		{
+			int ans;
+			
+			/* Same as Item.SortByToxicity */
+			if (item.stats == null || item.stats.burned)
+				return -1;
+			
+			ans = 0;
+			if (item.stats.reading != null)
+				ans += item.stats.reading.incorrect;
+			if (item.stats.meaning != null)
+				ans += item.stats.meaning.incorrect;
+			
+			return ans;
+		}
+		
+		/**
+		 * Returns the natural key of an item, i.e. the last component
+		 * of its URL on the WaniKani site.
+		 * @param item the item
+		 * @return the key
+		 */
+		protected String getKey (T item)
+		{
+			String ans;
+			
+			ans = item.getItemURLComponent ();
+			
+			return ans != null ? ans : item.meaning;
+		}
+		
+		/**
+		 * Computes a hash of all the fields that are stored in the table,
+		 * except the key. Subclasses that store additional fields 
+		 * must mix them in.
+		 * @param item the item
+		 * @return the hash
+		 */
+		protected long contentHash (T item)
+		{
+			Item.Stats stats;
+			long h;
+			
+			h = mix (0, item.character);
+			h = mix (h, item.meaning);
+			h = mix (h, item.level);
+			h = mix (h, item.getUnlockedDate ());
+			
+			stats = item.stats;
+			if (stats != null) {
+				h = mix (h, stats.srs != null ? stats.srs.ordinal () : -1);
+				h = mix (h, stats.availableDate);
+				h = mix (h, stats.burnedDate);
+				h = mix (h, stats.burned ? 1 : 0);
+				h = mix (h, stats.reading);
+				h = mix (h, stats.meaning);
+				h = mix (h, stats.readingNote);
+				h = mix (h, stats.meaningNote);
+				h = mix (h, encodeStringArray (stats.userSynonyms));
+			}
+			
+			return h;
+		}
+		
+		protected long mix (long h, long value)
+		{
+			return h * 1000003 + value;
+		}
+		
+		protected long mix (long h, String s)
+		{
+			return mix (h, s != null ? s.hashCode () : 0);
+		}
+		
+		protected long mix (long h, Date date)
+		{
+			return mix (h, date != null ? date.getTime () : 0);
+		}
+		
+		private long mix (long h, Item.Performance perf)
+		{
+			if (perf == null)
+				return mix (h, -1);
+			
+			h = mix (h, perf.correct);
+			h = mix (h, perf.incorrect);
+			h = mix (h, perf.maxStreak);
 			
-			idx = c.getColumnIndex (col);
+			return mix (h, perf.currentStreak);
+		}
+		
+		protected abstract T buildItem (Cursor c);
+		
+		protected Date getDate (Cursor c, int idx)
+		{
 			return !c.isNull (idx) ? new Date (c.getLong (idx)) : null;
 		}
 		
@@ -431,19 +854,18 @@ public class ItemsDatabase {
 			return sb.toString ();
 		}
 		
-		private Item.Performance loadPerformance (Cursor c, String correct, String incorrect,
-									  			  String maxStreak, String currentStreak)
+		private Item.Performance loadPerformance (Cursor c, int idx)
 		{
 			Item.Performance ans;
 			
-			if (c.isNull (c.getColumnIndex (correct)))
+			if (c.isNull (idx))
 				return null;
 				
 			ans = new Item.Performance ();
-			ans.correct = c.getInt (c.getColumnIndex (correct));
-			ans.incorrect = c.getInt (c.getColumnIndex (incorrect));
-			ans.maxStreak = c.getInt (c.getColumnIndex (maxStreak));
-			ans.currentStreak = c.getInt (c.getColumnIndex (currentStreak));
+			ans.correct = c.getInt (idx++);
+			ans.incorrect = c.getInt (idx++);
+			ans.maxStreak = c.getInt (idx++);
+			ans.currentStreak = c.getInt (idx++);
 			
 			return ans;
 		}
@@ -469,30 +891,28 @@ public class ItemsDatabase {
 		{
 			Item.Stats stats;
 			
-			i.character = c.getString (c.getColumnIndex (C_CHARACTER));
-			i.meaning = c.getString (c.getColumnIndex (C_MEANING));
-			i.level = c.getInt (c.getColumnIndex (C_LEVEL));
+			i.character = c.getString (I_CHARACTER);
+			i.meaning = c.getString (I_MEANING);
+			i.level = c.getInt (I_LEVEL);
 			
-			if (!c.isNull (c.getColumnIndex (C_SRS))) {
+			if (!c.isNull (I_SRS)) {
 				stats = new Item.Stats ();
-				stats.srs = SRSLevel.fromOrdinal (c.getInt (c.getColumnIndex (C_SRS)));
-				stats.availableDate = getDate (c, C_AVAILABLE_DATE);
-				stats.burnedDate = getDate (c, C_BURNED_DATE);
-				stats.burned = c.getInt (c.getColumnIndex (C_BURNED)) != 0;
-
-				stats.reading = loadPerformance (c, C_READING_CORRECT, C_READING_INCORRECT,
-								 				 C_READING_MAX_STREAK, C_READING_CURRENT_STREAK);
-				stats.meaning = loadPerformance (c, C_MEANING_CORRECT, C_MEANING_INCORRECT,
-						 		 			     C_MEANING_MAX_STREAK, C_READING_CURRENT_STREAK);
+				stats.srs = SRSLevel.fromOrdinal (c.getInt (I_SRS));
+				stats.availableDate = getDate (c, I_AVAILABLE_DATE);
+				stats.burnedDate = getDate (c, I_BURNED_DATE);
+				stats.burned = c.getInt (I_BURNED) != 0;
+
+				stats.reading = loadPerformance (c, I_READING);
+				stats.meaning = loadPerformance (c, I_MEANING_PERF);
 				
-				stats.readingNote = c.getString (c.getColumnIndex (C_READING_NOTE));
-				stats.meaningNote = c.getString (c.getColumnIndex (C_MEANING_NOTE));
-				stats.userSynonyms = parseStringArray (c.getString (c.getColumnIndex (C_USER_SYNONYMS)));
+				stats.readingNote = c.getString (I_READING_NOTE);
+				stats.meaningNote = c.getString (I_MEANING_NOTE);
+				stats.userSynonyms = parseStringArray (c.getString (I_USER_SYNONYMS));
 				
 				i.setStats (stats);
 			}
 					
-			i.setUnlockedDate (getDate (c, C_UNLOCKED_DATE));
+			i.setUnlockedDate (getDate (c, I_UNLOCKED_DATE));
 		}
 		
 		protected int fillStatement (SQLiteStatement stmt, T item)
@@ -550,6 +970,10 @@ public class ItemsDatabase {
 				stmt.bindString (idx++, s);
 			else
 				stmt.bindNull (idx++);
+			
+			stmt.bindString (idx++, getKey (item));
+			stmt.bindLong (idx++, contentHash (item));
+			stmt.bindLong (idx++, getErrors (item));
 
 			return idx;
 		}		
@@ -572,7 +996,7 @@ public class ItemsDatabase {
 						C_IMAGE + " TEXT NULL) ";
 		
 		private static final String SQL_INSERT =
-				"INSERT INTO " + TABLE + "(" + 
+				"INSERT OR REPLACE INTO " + TABLE + "(" + 
 						SQL_INSERT_COLUMNS + ", " +
 						C_IMAGE + ") VALUES (" +
 						SQL_INSERT_ARGS + ", ?)";
@@ -595,6 +1019,12 @@ public class ItemsDatabase {
 			return SQL_INSERT;
 		}
 
+		@Override
+		protected String [] getExtraColumns ()
+		{
+			return new String [] { C_IMAGE };
+		}
+
 		@Override
 		protected Radical buildItem (Cursor c)
 		{
@@ -603,7 +1033,7 @@ public class ItemsDatabase {
 			ans = new Radical ();
 			
 			super.setFields (c, ans);			
-			ans.image = c.getString (c.getColumnIndex (C_IMAGE));
+			ans.image = c.getString (I_EXTRA);
 			
 			return ans;
 		}
@@ -621,6 +1051,12 @@ public class ItemsDatabase {
 			
 			return idx;
 		}		
+		
+		@Override
+		protected long contentHash (Radical item)
+		{
+			return mix (super.contentHash (item), item.image);
+		}
 	}
 		
 	public class KanjiTable extends ItemsTable<Kanji> {
@@ -648,7 +1084,7 @@ public class ItemsDatabase {
 						C_IMPORTANT_IS_ON + " INTEGER NOT NULL)";
 		
 		private static final String SQL_INSERT =
-				"INSERT INTO " + TABLE + "(" + 
+				"INSERT OR REPLACE INTO " + TABLE + "(" + 
 						SQL_INSERT_COLUMNS + ", " +
 						C_ONYOMI + ", " + 
 						C_KUNYOMI + ", " + 
@@ -672,6 +1108,12 @@ public class ItemsDatabase {
 			return SQL_INSERT;
 		}
 
+		@Override
+		protected String [] getExtraColumns ()
+		{
+			return new String [] { C_ONYOMI, C_KUNYOMI, C_IMPORTANT_IS_ON };
+		}
+
 		@Override
 		protected Kanji buildItem (Cursor c)
 		{
@@ -680,9 +1122,9 @@ public class ItemsDatabase {
 			ans = new Kanji ();
 			
 			super.setFields (c, ans);			
-			ans.onyomi = c.getString (c.getColumnIndex (C_ONYOMI));
-			ans.kunyomi = c.getString (c.getColumnIndex (C_KUNYOMI));
-			ans.importantReading = c.getInt (c.getColumnIndex (C_IMPORTANT_IS_ON)) == 1 ?
+			ans.onyomi = c.getString (I_EXTRA);
+			ans.kunyomi = c.getString (I_EXTRA + 1);
+			ans.importantReading = c.getInt (I_EXTRA + 2) == 1 ?
 							Kanji.Reading.ONYOMI : Kanji.Reading.KUNYOMI;
 			
 			return ans;
@@ -708,6 +1150,17 @@ public class ItemsDatabase {
 			
 			return idx;
 		}		
+		
+		@Override
+		protected long contentHash (Kanji item)
+		{
+			long h;
+			
+			h = mix (super.contentHash (item), item.onyomi);
+			h = mix (h, item.kunyomi);
+			
+			return mix (h, item.importantReading == Kanji.Reading.ONYOMI ? 1 : 0);
+		}
 	};
 		
 	public class VocabTable extends ItemsTable<Vocabulary> {
@@ -727,7 +1180,7 @@ public class ItemsDatabase {
 						C_KANA + " TEXT NOT NULL)"; 
 
 		private static final String SQL_INSERT =
-				"INSERT INTO " + TABLE + "(" + 
+				"INSERT OR REPLACE INTO " + TABLE + "(" + 
 						SQL_INSERT_COLUMNS + ", " +
 						C_KANA + ") VALUES (" +
 						SQL_INSERT_ARGS + ", ?)";		
@@ -749,6 +1202,12 @@ public class ItemsDatabase {
 			return SQL_INSERT;
 		}
 
+		@Override
+		protected String [] getExtraColumns ()
+		{
+			return new String [] { C_KANA };
+		}
+
 		@Override
 		protected Vocabulary buildItem (Cursor c)
 		{
@@ -757,7 +1216,7 @@ public class ItemsDatabase {
 			ans = new Vocabulary ();
 			
 			super.setFields (c, ans);			
-			ans.kana = c.getString (c.getColumnIndex (C_KANA));
+			ans.kana = c.getString (I_EXTRA);
 			
 			return ans;
 		}
@@ -772,6 +1231,12 @@ public class ItemsDatabase {
 			stmt.bindString (idx++, item.kana);
 			
 			return idx;
+		}
+		
+		@Override
+		protected long contentHash (Vocabulary item)
+		{
+			return mix (super.contentHash (item), item.kana);
 		}				
 	};
 	
@@ -781,7 +1246,7 @@ public class ItemsDatabase {
 	class OpenHelper extends SQLiteOpenHelper {
 		
 		/** DB Version */
-		private static final int VERSION = 2;
+		private static final int VERSION = 5;
 		
 		/** The db file */
 		private static final String NAME = "items.db";
@@ -859,11 +1324,14 @@ public class ItemsDatabase {
 		}
 	}
 
-	/** The DB helper */
-	private OpenHelper helper;
+	/** The DB helper, shared by all the instances */
+	private static OpenHelper helper;
 	
-	/** The database */
-	SQLiteDatabase db;
+	/** The shared database handle, or <code>null</code> if closed */
+	private static SQLiteDatabase db;
+	
+	/** Number of users of the shared handle */
+	private static int refs;
 	
 	/** The cache */
 	ItemsCacheImpl cache;
@@ -877,42 +1345,65 @@ public class ItemsDatabase {
 	 */
 	public ItemsDatabase (Context ctxt)
 	{		
-		helper = new OpenHelper (ctxt);
+		synchronized (ItemsDatabase.class) {
+			if (helper == null)
+				helper = new OpenHelper (ctxt.getApplicationContext ());
+		}
 		cache = new ItemsCacheImpl ();
 	}	
 	
 	/**
-	 * Opens the database in r/w mode. This method may be called multiple times
-	 * on the same instance, provided that {@link #close()} is called
-	 * beforehand.
+	 * Returns the shared database handle, opening it if needed. Each call
+	 * must be balanced by a call to {@link #release()}. 
+	 * The handle is opened in r/w mode to allow db upgrade and, where
+	 * available, in WAL mode, so readers do not block each other.
+	 * @return the handle 
 	 */	
-	public synchronized void openW ()
+	private static synchronized SQLiteDatabase acquire ()
 		throws SQLException
 	{
-		if (db == null)
-			db = helper.getWritableDatabase ();	
+		if (db == null) {
+			db = helper.getWritableDatabase ();
+			if (Build.VERSION.SDK_INT >= 11)
+				db.enableWriteAheadLogging ();
+		}
+		refs++;
+		
+		return db;
 	}
 	
 	/**
-	 * Opens the database in r/o mode. This method may be called multiple times
-	 * on the same instance, provided that {@link #close()} is called
-	 * beforehand.
-	 */	
-	public synchronized void openR ()
+	 * Releases a reference to the shared database handle. The db
+	 * is closed when nobody is using it any more.
+	 */
+	private static synchronized void release ()
 		throws SQLException
 	{
-		if (db == null)
-			db = helper.getReadableDatabase ();	
+		if (--refs == 0 && db != null) {
+			helper.close ();		
+			db = null;
+		}
 	}
 	
 	/**
-	 * Closes the DB.
+	 * Keeps the shared handle open until {@link #unhold()} is called,
+	 * so cache calls do not need to reopen the file each time.
+	 * The database itself is opened lazily, on the first access.
+	 * Meant to be tied to the lifecycle of the main activity.
 	 */
-	public void close ()
-		throws SQLException
+	public void hold ()
+	{
+		synchronized (ItemsDatabase.class) {
+			refs++;
+		}
+	}
+	
+	/**
+	 * Drops the reference taken by {@link #hold()}.
+	 */
+	public void unhold ()
 	{
-		helper.close ();		
-		db = null;
+		release ();
 	}
 	
 	public ItemsCacheInterface getCache ()
@@ -920,4 +1411,47 @@ public class ItemsDatabase {
 		return cache;
 	}
 	
+	/**
+	 * Returns the table holding items of a given type, to run queries that
+	 * are not supported by the {@link ItemsCacheInterface}.
+	 * @param type the item type
+	 * @return the table
+	 */
+	@SuppressWarnings("unchecked")
+	public<T extends Item> ItemsTable<T> getTable (Item.Type type)
+	{
+		return (ItemsTable<T>) cache.<T>get (type);
+	}
+	
+	/**
+	 * Returns the times when unburned items of any type become 
+	 * available, in a given interval. 
+	 * @param from the start of the interval (inclusive)
+	 * @param to the end of the interval (exclusive)
+	 * @return the times, in no particular order
+	 */
+	public long [] getAvailableTimes (Date from, Date to)
+	{
+		long ans [], times [][];
+		Item.Type types [];
+		int i, n;
+		
+		types = Item.Type.values ();
+		times = new long [types.length][];
+		n = 0;
+		for (i = 0; i < types.length; i++) {
+			times [i] = getTable (types [i]).getAvailableTimes (from, to);
+			n += times [i].length;
+		}
+		
+		ans = new long [n];
+		n = 0;
+		for (i = 0; i < types.length; i++) {
+			System.arraycopy (times [i], 0, ans, n, times [i].length);
+			n += times [i].length;
+		}
+		
+		return ans;
+	}
+	
 }
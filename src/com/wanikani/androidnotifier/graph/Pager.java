@@ -152,8 +152,12 @@ public class Pager {
 		public List<Series> series;
 		
 		/** The data of each subplot. First index is the subplot, while the
-		 *  other is the actual data */
+		 *  other is the actual data, starting at {@link #offset} */
 		public float data [][];
+		
+		/** The index of the first sample of this segment in each
+		 *  {@link #data} array. This way, segments may share bigger arrays */
+		public int offset;
 	
 		/**
 		 * Constructor. This is typically used when the segment contains valid data
@@ -864,7 +864,7 @@ public class TYPlot extends View {
 			f = new float [segment.interval.getSize ()];
 			for (i = 0; i < segment.data.length; i++)
 				drawPlot (canvas, segment.series.get (i), segment.interval, 
-						  f, segment.data [i]);
+						  f, segment.data [i], segment.offset);
 				
 			break;
 		}
@@ -901,9 +901,10 @@ public class TYPlot extends View {
 	 * @param interval the interval
 	 * @param base a float array initially set to zero, and updated by this method
 	 * @param samples the samples 
+	 * @param offset the index of the first sample of the interval
 	 */
 	protected void drawPlot (Canvas canvas, Pager.Series series, Pager.Interval interval,
-							 float base [], float samples [])
+							 float base [], float samples [], int offset)
 	{
 		Path path;
 		Paint p;
@@ -911,7 +912,7 @@ public class TYPlot extends View {
 		
 		p = pas.series.get (series);
 		n = interval.stop - interval.start + 1;
-		if (p == null || samples.length == 0 || n <= 0)
+		if (p == null || samples.length <= offset || n <= 0)
 			return;
 
 		path = new Path ();
@@ -920,7 +921,7 @@ public class TYPlot extends View {
 		
 		for (i = n - 1; i >= 0; i--) {
 			path.lineTo (vp.getRelPosition (interval.start + i), vp.getY (base [i]));
-			base [i] += samples [i];
+			base [i] += samples [offset + i];
 		}
 			
 		for (i = 0; i < n; i++)
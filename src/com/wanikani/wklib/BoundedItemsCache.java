@@ -0,0 +1,312 @@
+package com.wanikani.wklib;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * A memory cache with a size budget, that can be placed in front of a
+ * slower (persistent) cache. Levels are kept in LRU order across all the
+ * item types, and the least recently used ones are evicted as soon as
+ * the estimated retained size exceeds the budget. Writes go through to
+ * the backing cache, which is expected to hold everything.
+ */
+public class BoundedItemsCache implements ItemsCacheInterface {
+
+	static final long serialVersionUID = 1L;
+
+	public static final long DEFAULT_BUDGET = 2 * 1024 * 1024;
+
+	/* Rough footprint of an item and its stats, excluding strings */
+	private static final int ITEM_OVERHEAD = 200;
+
+	private static final int STRING_OVERHEAD = 40;
+
+	private static final int LEVEL_SPAN = 1000;
+
+	static class Entry implements Serializable {
+
+		static final long serialVersionUID = 1L;
+
+		LevelData<? extends Item> data;
+
+		long size;
+
+		public Entry (LevelData<? extends Item> data)
+		{
+			this.data = data;
+
+			size = estimateSize (data);
+		}
+	}
+
+	/* Shared by all the instances, since connections (and their caches) come and go */
+	public static class Counters {
+
+		int hits;
+
+		int misses;
+
+		int evictions;
+
+		public synchronized int getHits ()
+		{
+			return hits;
+		}
+
+		public synchronized int getMisses ()
+		{
+			return misses;
+		}
+
+		public synchronized int getEvictions ()
+		{
+			return evictions;
+		}
+
+		public synchronized boolean isEmpty ()
+		{
+			return hits == 0 && misses == 0;
+		}
+
+		public synchronized void reset ()
+		{
+			hits = misses = evictions = 0;
+		}
+
+		synchronized void hit ()
+		{
+			hits++;
+		}
+
+		synchronized void miss ()
+		{
+			misses++;
+		}
+
+		synchronized void evicted ()
+		{
+			evictions++;
+		}
+	}
+
+	public static final Counters COUNTERS = new Counters ();
+
+	public class LevelCache<T extends Item> implements ItemsCacheInterface.Cache<T> {
+
+		static final long serialVersionUID = 1L;
+
+		Item.Type type;
+
+		public LevelCache (Item.Type type)
+		{
+			this.type = type;
+		}
+
+		public LevelData<T> get (int level)
+		{
+			LevelData<T> ans;
+
+			ans = lookup (type, level);
+			if (ans != null)
+				return ans;
+
+			if (backing == null)
+				return new LevelData<T> ();
+
+			ans = backing.<T>get (type).get (level);
+			if (ans.quality == Quality.GOOD)
+				store (type, level, ans);
+
+			return ans;
+		}
+
+		public void get (Map<Integer, LevelData <T>> data)
+		{
+			Map<Integer, LevelData <T>> missing;
+			LevelData<T> ld;
+
+			missing = new HashMap<Integer, LevelData<T>> (data.size () * 2);
+			for (int level : data.keySet ()) {
+				ld = lookup (type, level);
+				if (ld != null)
+					data.put (level, ld);
+				else
+					missing.put (level, new LevelData<T> ());
+			}
+
+			if (missing.isEmpty () || backing == null)
+				return;
+
+			backing.<T>get (type).get (missing);
+			for (Map.Entry<Integer, LevelData<T>> e : missing.entrySet ()) {
+				ld = e.getValue ();
+				if (ld.quality == Quality.GOOD)
+					store (type, e.getKey (), ld);
+				data.put (e.getKey (), ld);
+			}
+		}
+
+		public void put (LevelData <T> data)
+		{
+			Map<Integer, LevelData <T>> map;
+			LevelData<T> ld;
+
+			if (backing != null)
+				backing.<T>get (type).put (data);
+
+			map = new HashMap<Integer, LevelData <T>> ();
+			for (T t : data.lib.list) {
+				ld = map.get (t.level);
+				if (ld == null) {
+					ld = new LevelData<T> (data.date, data.etag, new ItemLibrary<T> ());
+					map.put (t.level, ld);
+				}
+				ld.lib.add (t);
+			}
+
+			for (Map.Entry<Integer, LevelData<T>> e : map.entrySet ()) {
+				e.getValue ().updateNextChange ();
+				store (type, e.getKey (), e.getValue ());
+			}
+		}
+	}
+
+	transient ItemsCacheInterface backing;
+
+	long budget;
+
+	long size;
+
+	LinkedHashMap<Integer, Entry> lru;
+
+	LevelCache<Radical> radicals;
+
+	LevelCache<Kanji> kanji;
+
+	LevelCache<Vocabulary> vocab;
+
+	public BoundedItemsCache (ItemsCacheInterface backing, long budget)
+	{
+		this.backing = backing;
+		this.budget = budget;
+
+		lru = new LinkedHashMap<Integer, Entry> (64, 0.75f, true);
+		radicals = new LevelCache<Radical> (Item.Type.RADICAL);
+		kanji = new LevelCache<Kanji> (Item.Type.KANJI);
+		vocab = new LevelCache<Vocabulary> (Item.Type.VOCABULARY);
+	}
+
+	public BoundedItemsCache (ItemsCacheInterface backing)
+	{
+		this (backing, DEFAULT_BUDGET);
+	}
+
+	@Override
+	public<T extends Item> Cache<T> get (Item.Type type)
+	{
+		switch (type) {
+		case RADICAL:
+			return (Cache<T>) radicals;
+
+		case KANJI:
+			return (Cache <T>) kanji;
+
+		case VOCABULARY:
+			return (Cache <T>) vocab;
+		}
+
+		return null;
+	}
+
+	public void flush ()
+	{
+		synchronized (this) {
+			lru.clear ();
+			size = 0;
+		}
+
+		if (backing != null)
+			backing.flush ();
+	}
+
+	private static int key (Item.Type type, int level)
+	{
+		return type.ordinal () * LEVEL_SPAN + level;
+	}
+
+	private synchronized<T extends Item> LevelData<T> lookup (Item.Type type, int level)
+	{
+		Entry e;
+
+		e = lru.get (key (type, level));
+		if (e == null) {
+			COUNTERS.miss ();
+			return null;
+		}
+
+		COUNTERS.hit ();
+
+		return (LevelData<T>) e.data;
+	}
+
+	private synchronized void store (Item.Type type, int level, LevelData<? extends Item> data)
+	{
+		Iterator<Entry> i;
+		Entry e, old;
+
+		e = new Entry (data);
+		old = lru.put (key (type, level), e);
+		if (old != null)
+			size -= old.size;
+		size += e.size;
+
+		/* Keep at least the level we just stored */
+		i = lru.values ().iterator ();
+		while (size > budget && lru.size () > 1) {
+			old = i.next ();
+			size -= old.size;
+			i.remove ();
+			COUNTERS.evicted ();
+		}
+	}
+
+	static long estimateSize (LevelData<? extends Item> data)
+	{
+		long ans;
+
+		ans = 0;
+		for (Item item : data.lib.list) {
+			ans += ITEM_OVERHEAD + estimateSize (item.character) + estimateSize (item.meaning);
+			if (item.stats != null)
+				ans += estimateSize (item.stats.meaningNote) +
+					   estimateSize (item.stats.readingNote);
+		}
+
+		return ans;
+	}
+
+	private static long estimateSize (String s)
+	{
+		return s != null ? STRING_OVERHEAD + 2 * s.length () : 0;
+	}
+}
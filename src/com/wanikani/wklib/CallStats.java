@@ -0,0 +1,274 @@
+package com.wanikani.wklib;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Per-resource request statistics. Timings, sizes and item counts go
+ * into fixed-bucket histograms, and the resource table is built once, so
+ * recording a request does not allocate anything: this runs in the
+ * notification service, after every call.
+ * Readers get a copy through snapshot().
+ */
+public class CallStats implements Connection.Instrumentation {
+
+	public static class Histogram {
+
+		/* Upper bounds (exclusive) of each bucket but the last one */
+		long bounds [];
+
+		int counts [];
+
+		long sum;
+
+		int n;
+
+		public Histogram (long bounds [])
+		{
+			this.bounds = bounds;
+
+			counts = new int [bounds.length + 1];
+		}
+
+		public Histogram (Histogram h)
+		{
+			bounds = h.bounds;
+			counts = h.counts.clone ();
+			sum = h.sum;
+			n = h.n;
+		}
+
+		void add (long value)
+		{
+			int i;
+
+			if (value < 0)
+				return;
+
+			for (i = 0; i < bounds.length && value >= bounds [i]; i++);
+			counts [i]++;
+			sum += value;
+			n++;
+		}
+
+		void reset ()
+		{
+			for (int i = 0; i < counts.length; i++)
+				counts [i] = 0;
+			sum = 0;
+			n = 0;
+		}
+
+		public long [] getBounds ()
+		{
+			return bounds;
+		}
+
+		public int [] getCounts ()
+		{
+			return counts;
+		}
+
+		public int getCount ()
+		{
+			return n;
+		}
+
+		public long getMean ()
+		{
+			return n > 0 ? sum / n : 0;
+		}
+
+		/*
+		 * Returns the upper bound of the bucket containing the given
+		 * percentile, or Long.MAX_VALUE if it falls in the last bucket.
+		 */
+		public long getPercentile (int p)
+		{
+			int i, cnt, target;
+
+			if (n == 0)
+				return 0;
+
+			target = (n * p + 99) / 100;
+			cnt = 0;
+			for (i = 0; i < bounds.length; i++) {
+				cnt += counts [i];
+				if (cnt >= target)
+					return bounds [i];
+			}
+
+			return Long.MAX_VALUE;
+		}
+	}
+
+	public static class Resource {
+
+		public String name;
+
+		public int requests;
+
+		public int notModified;
+
+		public int failures;
+
+		public Histogram connect;
+
+		public Histogram ttfb;
+
+		public Histogram download;
+
+		public Histogram parse;
+
+		public Histogram size;
+
+		public Histogram items;
+
+		Resource (String name)
+		{
+			this.name = name;
+
+			connect = new Histogram (TIME_BOUNDS);
+			ttfb = new Histogram (TIME_BOUNDS);
+			download = new Histogram (TIME_BOUNDS);
+			parse = new Histogram (TIME_BOUNDS);
+			size = new Histogram (SIZE_BOUNDS);
+			items = new Histogram (ITEM_BOUNDS);
+		}
+
+		Resource (Resource r)
+		{
+			name = r.name;
+			requests = r.requests;
+			notModified = r.notModified;
+			failures = r.failures;
+
+			connect = new Histogram (r.connect);
+			ttfb = new Histogram (r.ttfb);
+			download = new Histogram (r.download);
+			parse = new Histogram (r.parse);
+			size = new Histogram (r.size);
+			items = new Histogram (r.items);
+		}
+
+		void reset ()
+		{
+			requests = notModified = failures = 0;
+
+			connect.reset ();
+			ttfb.reset ();
+			download.reset ();
+			parse.reset ();
+			size.reset ();
+			items.reset ();
+		}
+
+		public boolean isEmpty ()
+		{
+			return requests == 0 && parse.n == 0;
+		}
+	}
+
+	/* Milliseconds */
+	static final long TIME_BOUNDS [] = { 50, 100, 200, 500, 1000, 2000, 5000, 10000 };
+
+	/* Bytes */
+	static final long SIZE_BOUNDS [] = { 1 << 10, 4 << 10, 16 << 10, 64 << 10, 256 << 10, 1 << 20 };
+
+	static final long ITEM_BOUNDS [] = { 2, 10, 100, 1000, 10000 };
+
+	static final String RESOURCES [] = {
+		"user-information", "study-queue", "level-progression", "srs-distribution",
+		"recent-unlocks", "critical-items", "radicals", "kanji", "vocabulary"
+	};
+
+	static final String OTHER = "other";
+
+	/* Collects the calls of all the connections of this process */
+	public static final CallStats SHARED = new CallStats ();
+
+	Resource resources [];
+
+	public CallStats ()
+	{
+		int i;
+
+		resources = new Resource [RESOURCES.length + 1];
+		for (i = 0; i < RESOURCES.length; i++)
+			resources [i] = new Resource (RESOURCES [i]);
+		resources [i] = new Resource (OTHER);
+	}
+
+	private Resource lookup (String resource)
+	{
+		int i;
+
+		/* Callers pass the constants above, so this is usually an identity match */
+		for (i = 0; i < RESOURCES.length; i++)
+			if (RESOURCES [i] == resource || RESOURCES [i].equals (resource))
+				break;
+
+		return resources [i];
+	}
+
+	@Override
+	public synchronized void request (String resource, int status, int connect, int ttfb,
+									  int download, int bytes)
+	{
+		Resource r;
+
+		r = lookup (resource);
+		r.requests++;
+		if (status == 304)
+			r.notModified++;
+		else if (status < 0 || status >= 400)
+			r.failures++;
+
+		r.connect.add (connect);
+		r.ttfb.add (ttfb);
+		r.download.add (download);
+		r.size.add (bytes);
+	}
+
+	@Override
+	public synchronized void parsed (String resource, int parse, int items)
+	{
+		Resource r;
+
+		r = lookup (resource);
+		r.parse.add (parse);
+		r.items.add (items);
+	}
+
+	public synchronized Resource [] snapshot ()
+	{
+		Resource ans [];
+		int i;
+
+		ans = new Resource [resources.length];
+		for (i = 0; i < ans.length; i++)
+			ans [i] = new Resource (resources [i]);
+
+		return ans;
+	}
+
+	public synchronized void reset ()
+	{
+		for (Resource r : resources)
+			r.reset ();
+	}
+}
@@ -29,6 +29,17 @@ public class Config {
 	
 	public String gravatarUrl = DEF_GRAVATAR_URL;
 	
+	public boolean streaming = true;
+	
+	/* Largest number of levels fetched by a single request */
+	public int shardSize = 10;
+	
+	public int fetchThreads = 3;
+	
+	/* If set, identical concurrent requests are coalesced across all the
+	 * connections of this process, and not just within a single instance */
+	public boolean shareFlights = false;
+	
 	public static final Config DEFAULT_TCP =
 			new Config ();
 	
@@ -45,4 +56,14 @@ public class Config {
 		this.url = url;
 		this.gravatarUrl = gravatarUrl;
 	}
+	
+	public Config (Config config)
+	{
+		url = config.url;
+		gravatarUrl = config.gravatarUrl;
+		streaming = config.streaming;
+		shardSize = config.shardSize;
+		fetchThreads = config.fetchThreads;
+		shareFlights = config.shareFlights;
+	}
 }
@@ -7,11 +7,20 @@ import java.net.Authenticator;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.StringTokenizer;
-import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -20,6 +29,7 @@ import org.json.JSONTokener;
 
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.os.Build;
 
 /* 
  *  Copyright (c) 2013 Alberto Cuda
@@ -44,10 +54,32 @@ public class Connection {
 		
 		public void count (int data);
 		
+		public void decoded (int data);
+		
+		/* A level was served from the items cache, saving (approximately) that many bytes */
+		public void hit (int saved);
+		
+		/* A level had to be downloaded */
+		public void miss ();
+		
 		public void sync ();
 		
 	}
 	
+	public interface Instrumentation {
+		
+		/* Called after each request, even if it fails. Times are in milliseconds
+		 * from the start of the request, and are negative if the request failed 
+		 * before reaching that phase. Status is -1 if there was no response */
+		public void request (String resource, int status, int connect, int ttfb, 
+							 int download, int bytes);
+		
+		/* Called after a response is parsed. Time is negative if parsing
+		 * could not be told apart from the download */
+		public void parsed (String resource, int parse, int items);
+		
+	}
+	
 	class Response {
 		
 		UserInformation ui;
@@ -71,6 +103,37 @@ public class Connection {
 				throw ApplicationException.buildFromJSON (obj);
 			}
 		}
+		
+		public Response (Response res)
+		{
+			int i, n;
+			
+			ui = res.ui;
+			infoAsObj = res.infoAsObj;
+			if (res.infoAsArray != null) {
+				infoAsArray = new JSONArray ();
+				n = res.infoAsArray.length ();
+				for (i = 0; i < n; i++)
+					infoAsArray.put (res.infoAsArray.opt (i));
+			}
+		}
+	}
+	
+	/* Calls whose results are shallow-copied for each joined caller */
+	abstract class ItemsCall<T extends Item> implements SingleFlight.Call<ItemLibrary<T>> {
+		
+		public ItemLibrary<T> share (ItemLibrary<T> lib)
+		{
+			return new ItemLibrary<T> (lib);
+		}
+	}
+	
+	abstract class ResponseCall implements SingleFlight.Call<Response> {
+		
+		public Response share (Response res)
+		{
+			return new Response (res);
+		}
 	}
 	
 	class NotModifiedException extends IOException {
@@ -107,6 +170,181 @@ public class Connection {
 		}
 	}
 	
+	class Shard<T extends Item> implements Callable<ItemLibrary<T>> {
+		
+		Meter meter;
+		
+		String resource;
+		
+		ItemsCacheInterface.Cache<T> ic;
+		
+		Item.Factory<T> factory;
+		
+		Map<Integer, ItemsCacheInterface.LevelData<T>> map;
+		
+		List<Integer> levels;
+		
+		boolean stale;
+		
+		public Shard (Meter meter, String resource, ItemsCacheInterface.Cache<T> ic, 
+					  Item.Factory<T> factory, Map<Integer, ItemsCacheInterface.LevelData<T>> map,
+					  List<Integer> levels, boolean stale)
+		{
+			this.meter = meter;
+			this.resource = resource;
+			this.ic = ic;
+			this.factory = factory;
+			this.map = map;
+			this.levels = levels;
+			this.stale = stale;
+		}
+		
+		public ItemLibrary<T> call ()
+			throws IOException
+		{
+			ItemLibrary<T> lib;
+			CountingMeter cm;
+			CacheInfo cinfo;
+			Date date;
+			
+			cinfo = new CacheInfo ();
+			if (stale) {
+				cinfo.modified = new Date ();
+				for (Integer level : levels) {
+					date = map.get (level).date;
+					if (date.before (cinfo.modified))
+						cinfo.modified = date;
+				}
+			}
+			
+			try {
+				cm = new CountingMeter (meter);
+				lib = callItems (cm, resource, levelList (levels), cinfo, factory);
+				ic.put (new ItemsCacheInterface.LevelData<T> (cinfo.modified, null, lib));
+				learnItemSize (cm.bytes, lib.list.size ());
+				for (Integer level : levels)
+					meter.miss ();
+				
+				return lib;
+				
+			} catch (NotModifiedException e) {
+				lib = new ItemLibrary<T> ();
+				for (Integer level : levels)
+					lib.add (map.get (level).lib);
+				/* Restart the clock, so pending items are not rechecked straight away */
+				ic.put (new ItemsCacheInterface.LevelData<T> (new Date (), null, lib));
+				meter.hit (estimateSize (lib));
+				
+				return lib;
+			} catch (JSONException e) {
+				throw new ParseException ();
+			}
+		}
+	}
+	
+	static class SynchronizedMeter implements Meter {
+		
+		Meter meter;
+		
+		public SynchronizedMeter (Meter meter)
+		{
+			this.meter = meter;
+		}
+		
+		public synchronized void count (int data)
+		{
+			meter.count (data);
+		}
+		
+		public synchronized void decoded (int data)
+		{
+			meter.decoded (data);
+		}
+		
+		public synchronized void hit (int saved)
+		{
+			meter.hit (saved);
+		}
+		
+		public synchronized void miss ()
+		{
+			meter.miss ();
+		}
+		
+		public synchronized void sync ()
+		{
+			meter.sync ();
+		}
+	}
+	
+	/* Keeps track of the wire bytes of a single call, to estimate item sizes */
+	static class CountingMeter implements Meter {
+		
+		Meter meter;
+		
+		int bytes;
+		
+		public CountingMeter (Meter meter)
+		{
+			this.meter = meter;
+		}
+		
+		public void count (int data)
+		{
+			bytes += data;
+			meter.count (data);
+		}
+		
+		public void decoded (int data)
+		{
+			meter.decoded (data);
+		}
+		
+		public void hit (int saved)
+		{
+			meter.hit (saved);
+		}
+		
+		public void miss ()
+		{
+			meter.miss ();
+		}
+		
+		public void sync ()
+		{
+			meter.sync ();
+		}
+	}
+	
+	/* Keeps track of the phases of a single request */
+	static class Timing extends CountingMeter {
+		
+		String resource;
+		
+		long start;
+		
+		int connect;
+		
+		int ttfb;
+		
+		int status;
+		
+		public Timing (Meter meter, String resource)
+		{
+			super (meter);
+			
+			this.resource = resource;
+			
+			start = System.nanoTime ();
+			connect = ttfb = status = -1;
+		}
+		
+		int elapsed ()
+		{
+			return (int) ((System.nanoTime () - start) / 1000000);
+		}
+	}
+	
 	public static final int CONNECT_TIMEOUT = 20000;
 	
 	public static final int READ_TIMEOUT = 60000;
@@ -117,6 +355,24 @@ public class Connection {
 	
 	private static final long CACHE_STALE_TIME = 7 * 24 * 3600 * 1000;
 	
+	/* Wire size of an item, until we measure it */
+	private static final int ITEM_SIZE_ESTIMATE = 100;
+	
+	/* Longest response tail we are willing to read to keep a connection alive */
+	private static final int DRAIN_LIMIT = 16 * 1024;
+	
+	/* How long idle shard threads are kept alive */
+	private static final long SHARD_THREAD_KEEPALIVE = 30 * 1000;
+	
+	/* Shared by all the connections of this process */
+	private static ThreadPoolExecutor shardExecutor;
+	
+	static {
+		/* Connection pooling is broken before Froyo */
+		if (Build.VERSION.SDK_INT < 8)
+			System.setProperty ("http.keepAlive", "false");
+	}
+	
 	UserLogin login;
 	
 	Config config;
@@ -127,16 +383,30 @@ public class Connection {
 	
 	public ItemsCacheInterface cache;
 	
+	public ResponseCache responses;
+	
+	public Instrumentation instr;
+	
+	SingleFlight flights;
+	
+	long itemBytes;
+	
+	long itemCount;
+	
 	public Connection (UserLogin login, Config config)
 	{
 		this.login = login;
 		this.config = config;
 		cache = new ItemsCache ();
+		responses = new ResponseCache ();
+		flights = config.shareFlights ? SingleFlight.SHARED : new SingleFlight ();
 	}
 	
 	public void flush ()
 	{
 		cache.flush ();
+		if (responses != null)
+			responses.flush ();
 	}
 	
 	public UserInformation getUserInformation (Meter meter)
@@ -193,7 +463,7 @@ public class Connection {
 		}
 	}
 	
-	private int [] getAllLevels (Meter meter)
+	public int [] getAllLevels (Meter meter)
 		throws IOException
 	{
 		UserInformation ui;
@@ -222,27 +492,81 @@ public class Connection {
 		return sb.toString ();
 	}
 	
+	private static<T extends Item> Date getNextChange (ItemsCacheInterface.LevelData<T> ld, int level)
+	{
+		Date expiry;
+		
+		expiry = new Date (ld.date.getTime () + CACHE_STALE_TIME + 
+						   CACHE_STALE_DISPERSION * (level % CACHE_DISPERSION_GROUPS));
+		
+		return ld.nextChange != null && ld.nextChange.before (expiry) ? ld.nextChange : expiry;
+	}
+	
 	private static<T extends Item> boolean isDataStale (ItemsCacheInterface.LevelData<T> ld, int level)
 	{		
-		Date now;
-		long age;
-		
-		now = new Date ();
-		age = now.getTime () - ld.date.getTime ();
-		if (age > CACHE_STALE_TIME + CACHE_STALE_DISPERSION * (level % CACHE_DISPERSION_GROUPS))
-			return true;
+		return !getNextChange (ld, level).after (new Date ());
+	}
+	
+	/**
+	 * Returns the earliest time at which any of the cached levels should 
+	 * be refreshed. Levels that are not cached at all are ignored, so
+	 * this may return null.
+	 * @param type the item type
+	 * @param levels the levels
+	 * @return the time of the next refresh, or null
+	 */
+	public Date getNextChange (Item.Type type, int levels [])
+	{
+		Map<Integer, ItemsCacheInterface.LevelData<Item>> map;
+		Date date, ans;
 		
-		for (T item : ld.lib.list) {
-			/* May become available any time */
-			if (item.getAvailableDate () == null)
-				return true;
-			if (item.stats != null && item.stats.burned)
+		map = ItemsCacheInterface.LevelData.createMap (levels);
+		cache.<Item>get (type).get (map);
+		ans = null;
+		for (Map.Entry<Integer, ItemsCacheInterface.LevelData<Item>> e : map.entrySet ()) {
+			if (e.getValue ().quality != ItemsCacheInterface.Quality.GOOD)
 				continue;
-			if (item.getAvailableDate ().before (now))
-				return true;
+			date = getNextChange (e.getValue (), e.getKey ());
+			if (ans == null || date.before (ans))
+				ans = date;
+		}
+		
+		return ans;
+	}
+	
+	/**
+	 * Tells whether all the given levels are cached and still fresh,
+	 * so that they can be queried locally. Only the date and the
+	 * next change of each level are looked at, so the map may come
+	 * from an inventory that does not hold the items.
+	 * @param map the cached data of each level
+	 * @return <code>true</code> if no refresh is needed
+	 */
+	public static<T extends Item> boolean isFresh (Map<Integer, ItemsCacheInterface.LevelData<T>> map)
+	{
+		for (Map.Entry<Integer, ItemsCacheInterface.LevelData<T>> e : map.entrySet ())
+			if (e.getValue ().quality != ItemsCacheInterface.Quality.GOOD ||
+				isDataStale (e.getValue (), e.getKey ()))
+				return false;
+		
+		return true;
+	}
+	
+	private synchronized void learnItemSize (int bytes, int items)
+	{
+		if (items > 0) {
+			itemBytes += bytes;
+			itemCount += items;
 		}
+	}
+	
+	private synchronized int estimateSize (ItemLibrary<?> lib)
+	{
+		long size;
+		
+		size = itemCount > 0 ? itemBytes / itemCount : ITEM_SIZE_ESTIMATE;
 		
-		return false;
+		return (int) (size * lib.list.size ());
 	}
 	
 	public ItemLibrary<Radical> getRadicals (Meter meter, int level)
@@ -299,23 +623,40 @@ public class Connection {
 		return getItems (meter, levels, "vocabulary", Item.Type.VOCABULARY, Vocabulary.FACTORY);
 	}
 	
-	protected<T extends Item> ItemLibrary<T> getItems (Meter meter, int level, String resource, 
+	protected<T extends Item> ItemLibrary<T> getItems (final Meter meter, final int level, 
+													   final String resource, final Item.Type type, 
+													   final Item.Factory<T> factory)
+			throws IOException
+	{
+		return flights.run (makeURL (resource, Integer.toString (level)), 
+							new ItemsCall<T> () {
+			public ItemLibrary<T> run ()
+				throws IOException
+			{
+				return fetchItems (meter, level, resource, type, factory);
+			}
+		});
+	}
+	
+	private<T extends Item> ItemLibrary<T> fetchItems (Meter meter, int level, String resource, 
 													   Item.Type type, Item.Factory<T> factory)
 			throws IOException
 	{
 		ItemsCacheInterface.LevelData<T> data;
 		ItemsCacheInterface.Cache<T> ic;
 		ItemLibrary<T> lib;
+		CountingMeter cm;
 		CacheInfo cinfo;
-		Response res;
 			
 		ic = cache.get (type);
 		data = ic.get (level);			
 
 		switch (data.quality) {
 		case GOOD:
-			if (!isDataStale (data, level))
+			if (!isDataStale (data, level)) {
+				meter.hit (estimateSize (data.lib));
 				return data.lib;
+			}
 			cinfo = new CacheInfo (data.etag, data.date);
 			break;
 			
@@ -325,23 +666,50 @@ public class Connection {
 		}
 		
 		try {
-			res = call (meter, resource, true, Integer.toString (level), cinfo);
-
-			lib = new ItemLibrary<T> (factory, res.infoAsArray);
+			cm = new CountingMeter (meter);
+			lib = callItems (cm, resource, Integer.toString (level), cinfo, factory);
 			
 			data = new ItemsCacheInterface.LevelData<T> (cinfo.modified, cinfo.etag, lib);
 			ic.put (data);
+			learnItemSize (cm.bytes, lib.list.size ());
+			meter.miss ();
 			
 			return lib;
 			
-		} catch (NotModifiedException e) {	
+		} catch (NotModifiedException e) {
+			/* Restart the clock, so pending items are not rechecked straight away */
+			ic.put (new ItemsCacheInterface.LevelData<T> (new Date (), data.etag, data.lib));
+			meter.hit (estimateSize (data.lib));
+			
 			return data.lib;
 		} catch (JSONException e) {
 			throw new ParseException ();
 		}
 	}
 
-	protected<T extends Item> ItemLibrary<T> getItems (Meter meter, int levels [], String resource, 
+	protected<T extends Item> ItemLibrary<T> getItems (final Meter meter, final int levels [], 
+													   final String resource, final Item.Type type, 
+													   final Item.Factory<T> factory)
+			throws IOException
+	{
+		List<Integer> key;
+		
+		key = new ArrayList<Integer> (levels.length);
+		for (int level : levels)
+			key.add (level);
+		Collections.sort (key);
+		
+		return flights.run (makeURL (resource, levelList (key)), 
+							new ItemsCall<T> () {
+			public ItemLibrary<T> run ()
+				throws IOException
+			{
+				return fetchItems (meter, levels, resource, type, factory);
+			}
+		});
+	}
+	
+	private<T extends Item> ItemLibrary<T> fetchItems (Meter meter, int levels [], String resource, 
 			  										   Item.Type type, Item.Factory<T> factory)
 			throws IOException
 	{
@@ -349,75 +717,131 @@ public class Connection {
 		ItemsCacheInterface.LevelData <T> ld;
 		ItemsCacheInterface.Cache<T> ic;
 		List<Integer> badl, missingl;
-		ItemLibrary<T> ans, lib;
-		CacheInfo cinfo;
-		Response res;
+		List<Shard<T>> shards;
+		ItemLibrary<T> ans;
 
 		ic = cache.get (type);
 		map = ItemsCacheInterface.LevelData.createMap (levels);
 		ic.get (map);
 
-		cinfo = new CacheInfo ();
-		
-		cinfo.modified = new Date ();
+		/* Shards may run concurrently and share the same meter */
+		meter = new SynchronizedMeter (meter);
 		ans = new ItemLibrary<T> ();
-		badl = new Vector<Integer> ();
-		missingl = new Vector<Integer> ();
+		badl = new ArrayList<Integer> ();
+		missingl = new ArrayList<Integer> ();
 		for (Map.Entry<Integer, ItemsCacheInterface.LevelData<T>> e : map.entrySet ()) {
 			ld = e.getValue ();
 			switch (ld.quality) {
 			case GOOD:
-				if (isDataStale (ld, e.getKey ())) {
-					if (ld.date.before (cinfo.modified))
-						cinfo.modified = ld.date;
+				if (isDataStale (ld, e.getKey ()))
 					badl.add (e.getKey ());					
-				} else				
+				else {
+					meter.hit (estimateSize (ld.lib));
 					ans.add (ld.lib);
+				}
 				break;
 				
 			case MISSING:
 				missingl.add (e.getKey ());
 			}
 		}
-
-		try {
-			if (!badl.isEmpty ()) {
-				res = call (meter, resource, true, levelList (badl), cinfo);
-				lib = new ItemLibrary<T> (factory, res.infoAsArray);
-				ic.put (new ItemsCacheInterface.LevelData<T> (cinfo.modified, null, lib));
-				ans.add (lib);
-			} 
-		} catch (NotModifiedException e) {
-			for (Integer i : badl)
-				ans.add (map.get (i).lib);
-		} catch (JSONException e) {
-			throw new ParseException ();
+		
+		shards = new ArrayList<Shard<T>> ();
+		addShards (shards, meter, resource, ic, factory, map, badl, true);
+		addShards (shards, meter, resource, ic, factory, map, missingl, false);
+		
+		for (ItemLibrary<T> lib : runShards (shards))
+			ans.add (lib);
+		
+		return ans;
+	}
+	
+	private<T extends Item> void addShards (List<Shard<T>> shards, Meter meter, String resource, 
+											ItemsCacheInterface.Cache<T> ic, Item.Factory<T> factory,
+											Map<Integer, ItemsCacheInterface.LevelData<T>> map,
+											List<Integer> levels, boolean stale)
+	{
+		int i, size, threads;
+		
+		/* Spread the levels over all the threads, so that short requests, 
+		 * such as the chunks of a reconstruction, are loaded in parallel too */
+		threads = Math.max (1, config.fetchThreads);
+		size = Math.min (config.shardSize, (levels.size () + threads - 1) / threads);
+		size = Math.max (1, size);
+		
+		Collections.sort (levels);
+		for (i = 0; i < levels.size (); i += size)
+			shards.add (new Shard<T> (meter, resource, ic, factory, map, 
+									  levels.subList (i, Math.min (i + size, levels.size ())),
+									  stale));
+	}
+	
+	private<T extends Item> List<ItemLibrary<T>> runShards (List<Shard<T>> shards)
+		throws IOException
+	{
+		List<Future<ItemLibrary<T>>> futures;
+		List<ItemLibrary<T>> ans;
+		ExecutorService executor;
+		Throwable t;
+		
+		ans = new ArrayList<ItemLibrary<T>> (shards.size ());
+		if (shards.size () <= 1 || config.fetchThreads <= 1) {
+			for (Shard<T> shard : shards)
+				ans.add (shard.call ());
+			
+			return ans;
 		}
 		
-		cinfo = new CacheInfo ();
+		executor = getShardExecutor (config.fetchThreads);
+		futures = new ArrayList<Future<ItemLibrary<T>>> (shards.size ());
 		try {
-			if (!missingl.isEmpty ()) {
-				res = call (meter, resource, true, levelList (missingl), cinfo);
-				lib = new ItemLibrary<T> (factory, res.infoAsArray);
-				ic.put (new ItemsCacheInterface.LevelData<T> (cinfo.modified, null, lib));
-				ans.add (lib);
-			} 
-		} catch (JSONException e) {
-			throw new ParseException ();
+			for (Shard<T> shard : shards)
+				futures.add (executor.submit (shard));
+			for (Future<ItemLibrary<T>> f : futures)
+				ans.add (f.get ());
+		} catch (ExecutionException e) {
+			t = e.getCause ();
+			if (t instanceof IOException)
+				throw (IOException) t;
+			else if (t instanceof RuntimeException)
+				throw (RuntimeException) t;
+			throw new IOException (t.getMessage ());
+		} catch (InterruptedException e) {
+			throw new IOException ("Interrupted");
+		} finally {
+			/* No-op on the shards that completed */
+			for (Future<ItemLibrary<T>> f : futures)
+				f.cancel (true);
 		}
 		
 		return ans;
 	}
 	
+	/*
+	 * Returns the executor that runs shards. Threads are started on demand,
+	 * up to the largest fetchThreads value requested so far, and die when
+	 * idle. There is no queue: when all the threads are busy, a shard 
+	 * runs on the caller's thread, so nested or concurrent fetches can't
+	 * starve each other.
+	 */
+	private static synchronized ExecutorService getShardExecutor (int threads)
+	{
+		if (shardExecutor == null)
+			shardExecutor = new ThreadPoolExecutor (0, threads, SHARD_THREAD_KEEPALIVE, 
+													TimeUnit.MILLISECONDS, 
+													new SynchronousQueue<Runnable> (),
+													new ThreadPoolExecutor.CallerRunsPolicy ());
+		else if (shardExecutor.getMaximumPoolSize () < threads)
+			shardExecutor.setMaximumPoolSize (threads);
+		
+		return shardExecutor;
+	}
+	
 	public ItemLibrary<Item> getRecentUnlocks (Meter meter, int count)
 		throws IOException
 	{
-		Response res;
-		
 		try {
-			res = call (meter, "recent-unlocks", true, Integer.toString (count));
-
-			return new ItemLibrary<Item> (Item.FACTORY, res.infoAsArray);
+			return callItems (meter, "recent-unlocks", Integer.toString (count), null, Item.FACTORY);
 			
 		} catch (JSONException e) {
 			throw new ParseException ();
@@ -427,11 +851,12 @@ public class Connection {
 	public ItemLibrary<Item> getCriticalItems (Meter meter)
 			throws IOException
 	{
-		Response res;
-			
 		try {
-			res = call (meter, "critical-items", true);
-				return new ItemLibrary<Item> (Item.FACTORY, res.infoAsArray);
+			/* This list is short, so we can afford the DOM if it lets us use the cache */
+			if (responses != null && responses.getTTL ("critical-items") >= 0)
+				return new ItemLibrary<Item> (Item.FACTORY, call (meter, "critical-items", true).infoAsArray);
+			
+			return callItems (meter, "critical-items", null, null, Item.FACTORY);
 			
 		} catch (JSONException e) {
 			throw new ParseException ();
@@ -453,7 +878,7 @@ public class Connection {
 					add (radicals).add (kanji).add(vocab);
 	}		
 
-	private static String readStream (Meter meter, InputStream is)
+	static String readStream (InputStream is)
 		throws IOException
 	{
 		InputStreamReader ir;
@@ -468,11 +893,9 @@ public class Connection {
 			rd = ir.read (buf, 0, buf.length);
 			if (rd < 0)
 				break;
-			meter.count (rd);
 			sb.append (buf, 0, rd);
 		}
 		
-		meter.sync ();
 		return sb.toString ();
 	}
 	
@@ -488,38 +911,290 @@ public class Connection {
 		return call (meter, resource, isArray, arg, null);
 	}
 
-	protected Response call (Meter meter, String resource, boolean isArray, String arg, CacheInfo cinfo)
+	protected Response call (final Meter meter, final String resource, final boolean isArray, 
+							 final String arg, CacheInfo cinfo)
+		throws IOException
+	{
+		/* Conditional requests depend on the caller's cache, so they can't be shared */
+		if (cinfo != null)
+			return fetch (meter, resource, isArray, arg, cinfo);
+		
+		return flights.run (makeURL (resource, arg) + (isArray ? "[]" : "{}"), 
+							new ResponseCall () {
+			public Response run ()
+				throws IOException
+			{
+				return fetchCached (meter, resource, isArray, arg);
+			}
+		});
+	}
+	
+	private Response fetchCached (Meter meter, String resource, boolean isArray, String arg)
+		throws IOException
+	{
+		ResponseCache.Entry entry;
+		CacheInfo cinfo;
+		Response ans;
+		String key;
+		long ttl;
+		
+		ttl = responses != null && arg == null ? responses.getTTL (resource) : -1;
+		if (ttl < 0)
+			return fetch (meter, resource, isArray, arg, null);
+		
+		key = makeURL (resource, arg);
+		entry = responses.get (key, ttl);
+		if (entry != null && entry.isFresh (ttl))
+			return parse (resource, entry.body, isArray);
+		
+		cinfo = entry != null ? new CacheInfo (entry.etag, entry.modified) : new CacheInfo ();
+		try {
+			entry = new ResponseCache.Entry (new Date (), null, null, 
+											 fetchBody (meter, resource, arg, cinfo));
+			entry.etag = cinfo.etag;
+			entry.modified = cinfo.modified;
+		} catch (NotModifiedException e) {
+			entry.date = new Date ();
+		}
+		
+		/* Parse before storing, so that errors are never cached */
+		ans = parse (resource, entry.body, isArray);
+		responses.put (key, entry);
+		
+		return ans;
+	}
+	
+	private Response fetch (Meter meter, String resource, boolean isArray, String arg, CacheInfo cinfo)
+		throws IOException
+	{
+		return parse (resource, fetchBody (meter, resource, arg, cinfo), isArray);
+	}
+	
+	private Response parse (String resource, String body, boolean isArray)
+		throws IOException
+	{
+		Response ans;
+		long start;
+		
+		start = System.nanoTime ();
+		try {
+			ans = new Response (new JSONObject (new JSONTokener (body)), isArray);
+		} catch (JSONException e) {
+			throw new ParseException ();
+		}
+		
+		if (instr != null)
+			instr.parsed (resource, (int) ((System.nanoTime () - start) / 1000000),
+						  ans.infoAsArray != null ? ans.infoAsArray.length () : 1);
+		
+		return ans;
+	}
+	
+	private void record (Timing timing)
+	{
+		if (instr != null)
+			instr.request (timing.resource, timing.status, timing.connect, timing.ttfb, 
+						   timing.ttfb >= 0 ? timing.elapsed () - timing.ttfb : -1,
+						   timing.bytes);
+	}
+	
+	private String fetchBody (Meter meter, String resource, String arg, CacheInfo cinfo)
 		throws IOException
 	{
 		HttpURLConnection conn;
-		JSONTokener tok;
 		InputStream is;
-		URL url;
+		Timing timing;
+		String ans;
+		boolean ok;
 		
-		url = new URL (makeURL (resource, arg));
 		conn = null;
-		tok = null;
+		is = null;
+		ok = false;
+		timing = new Timing (meter, resource);
 		try {
-			conn = (HttpURLConnection) url.openConnection ();
-			if (cinfo != null) {
-				if (cinfo.etag != null)
-					conn.setRequestProperty ("If-None-Match", cinfo.etag);
-				else if (cinfo.modified != null)
-					conn.setIfModifiedSince (cinfo.modified.getTime ());
+			conn = open (timing, arg, cinfo);
+			is = getInputStream (timing, conn);
+			ans = readStream (is);
+			timing.sync ();
+			ok = true;
+		} finally {
+			release (conn, is, ok);
+			record (timing);
+		}
+				
+		updateCacheInfo (conn, cinfo);
+		
+		return ans;
+	}
+	
+	protected<T extends Item> ItemLibrary<T> callItems (final Meter meter, final String resource, 
+														 final String arg, CacheInfo cinfo, 
+														 final Item.Factory<T> factory)
+		throws IOException, JSONException
+	{
+		if (cinfo != null)
+			return streamItems (meter, resource, arg, cinfo, factory);
+		
+		/* Must not clash with the keys used by call(), which we may invoke */
+		return flights.run (makeURL (resource, arg) + "#items", 
+							new ItemsCall<T> () {
+			public ItemLibrary<T> run ()
+				throws IOException
+			{
+				try {
+					return streamItems (meter, resource, arg, null, factory);
+				} catch (JSONException e) {
+					throw new ParseException ();
+				}
 			}
-			setTimeouts (conn);
+		});
+	}
+	
+	private<T extends Item> ItemLibrary<T> streamItems (Meter meter, String resource, String arg, 
+													   CacheInfo cinfo, Item.Factory<T> factory)
+		throws IOException, JSONException
+	{
+		StreamingParser parser;
+		HttpURLConnection conn;
+		ItemLibrary<T> ans;
+		InputStream is;
+		Timing timing;
+		boolean ok;
+		
+		if (!config.streaming || Build.VERSION.SDK_INT < 11)
+			return new ItemLibrary<T> (factory, call (meter, resource, true, arg, cinfo).infoAsArray);
+		
+		conn = null;
+		is = null;
+		ok = false;
+		timing = new Timing (meter, resource);
+		try {
+			conn = open (timing, arg, cinfo);
+			is = getInputStream (timing, conn);
+			parser = new StreamingParser (is);
+			ans = parser.parseItems (factory);
+			timing.sync ();
+			ok = true;
+		} catch (IllegalStateException e) {
+			/* Thrown by the reader on malformed documents */
+			throw new ParseException ();
+		} finally {
+			release (conn, is, ok);
+			record (timing);
+		}
+		
+		updateCacheInfo (conn, cinfo);
+		
+		/* Items are parsed while they are downloaded */
+		if (instr != null)
+			instr.parsed (resource, -1, ans.list.size ());
+		
+		return ans;
+	}
+	
+	private HttpURLConnection open (Timing timing, String arg, CacheInfo cinfo)
+		throws IOException
+	{
+		HttpURLConnection conn;
+		URL url;
+		
+		url = new URL (makeURL (timing.resource, arg));
+		conn = (HttpURLConnection) url.openConnection ();
+		if (cinfo != null) {
+			if (cinfo.etag != null)
+				conn.setRequestProperty ("If-None-Match", cinfo.etag);
+			else if (cinfo.modified != null)
+				conn.setIfModifiedSince (cinfo.modified.getTime ());
+		}
+		/* Setting this explicitly disables transparent decompression, 
+		 * so we can see how many bytes actually go through the wire */
+		conn.setRequestProperty ("Accept-Encoding", "gzip");
+		setTimeouts (conn);
+		try {
 			conn.connect ();
+			timing.connect = timing.elapsed ();
+			timing.status = conn.getResponseCode ();
+			timing.ttfb = timing.elapsed ();
 			if (cinfo != null && cinfo.hasData () && 
-				conn.getResponseCode () == HttpURLConnection.HTTP_NOT_MODIFIED)
-					throw new NotModifiedException ();
-			measureHeaders (meter, conn, false);
-			is = conn.getInputStream ();
-			tok = new JSONTokener (readStream (meter, is));
-		} finally {
-			if (conn != null)
-				conn.disconnect ();
+				timing.status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+				measureHeaders (timing, conn, false);
+				try {
+					release (conn, conn.getInputStream (), true);
+				} catch (IOException e) {
+					conn.disconnect ();
+				}
+				throw new NotModifiedException ();
+			}
+			measureHeaders (timing, conn, false);
+		} catch (NotModifiedException e) {
+			throw e;
+		} catch (IOException e) {
+			conn.disconnect ();
+			throw e;
 		}
-				
+		
+		return conn;
+	}
+	
+	private static InputStream getInputStream (Meter meter, HttpURLConnection conn)
+		throws IOException
+	{
+		InputStream is;
+		
+		is = new MeteredInputStream (meter, conn.getInputStream (), false);
+		if ("gzip".equalsIgnoreCase (conn.getContentEncoding ()))
+			is = new GZIPInputStream (is);
+		
+		return new MeteredInputStream (meter, is, true);
+	}
+	
+	/*
+	 * Consumes what is left of a response body, so that the connection 
+	 * can be reused. Gives up if the tail is too long: closing the 
+	 * connection is cheaper than downloading it.
+	 */
+	private static boolean drain (InputStream is)
+		throws IOException
+	{
+		byte buf [];
+		int rd, left;
+		
+		buf = new byte [1024];
+		left = DRAIN_LIMIT;
+		while (left > 0) {
+			rd = is.read (buf, 0, Math.min (buf.length, left));
+			if (rd < 0)
+				return true;
+			left -= rd;
+		}
+		
+		return is.read () < 0;
+	}
+	
+	/*
+	 * Gives the socket back to the keep-alive pool, if the body was consumed 
+	 * completely. Otherwise the connection is in an unknown state and we
+	 * had better close it.
+	 */
+	private static void release (HttpURLConnection conn, InputStream is, boolean ok)
+	{
+		if (conn == null)
+			return;
+		
+		if (ok && is != null) {
+			try {
+				is.close ();
+				return;
+			} catch (IOException e) {
+				/* fall through */
+			}
+		}
+		
+		conn.disconnect ();
+	}
+	
+	private static void updateCacheInfo (HttpURLConnection conn, CacheInfo cinfo)
+	{
 		if (cinfo != null) {
 			cinfo.modified = new Date ();
 			if (conn.getDate () > 0)
@@ -529,22 +1204,19 @@ public class Connection {
 		
 			cinfo.etag = conn.getHeaderField ("ETag");
 		}
-		
-		try {
-			return new Response (new JSONObject (tok), isArray);
-		} catch (JSONException e) {
-			throw new ParseException ();
-		}
 	}
 		
 	public void resolve (Meter meter, UserInformation ui, int size, Bitmap defAvatar)
 	{
 			HttpURLConnection conn;
 			InputStream is;
+			boolean ok;
 			URL url;
 			int code;
 			
 			conn = null;
+			is = null;
+			ok = false;
 			try {
 				url = new URL (config.gravatarUrl + "/" + ui.gravatar + 
 							   "?s=" + size + "&d=404");
@@ -554,14 +1226,15 @@ public class Connection {
 				if (code == 200) {
 					is = conn.getInputStream ();
 					ui.gravatarBitmap = BitmapFactory.decodeStream (is);
+					/* The decoder may stop before the end of the body */
+					ok = drain (is);
 				} else if (code == 404)
 					ui.gravatarBitmap = defAvatar;
 				measureHeaders (meter, conn, true);
 			} catch (IOException e) {
 				/* empty */
 			} finally {
-				if (conn != null)
-					conn.disconnect ();
+				release (conn, is, ok);
 			}
 	}
 	
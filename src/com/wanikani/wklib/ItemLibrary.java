@@ -1,8 +1,8 @@
 package com.wanikani.wklib;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Vector;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -16,30 +16,31 @@ public class ItemLibrary<T extends Item> implements Serializable {
 	public ItemLibrary (Item.Factory<T> f, JSONArray array)
 		throws JSONException
 	{
-		int i;
+		int i, n;
 		
-		list = new Vector<T> (array.length ());
-		for (i = 0; i < array.length (); i++)
+		n = array.length ();
+		list = new ArrayList<T> (n);
+		for (i = 0; i < n; i++)
 			list.add (f.deserialize (array.getJSONObject (i)));
 	}
 	
 	public ItemLibrary (ItemLibrary<? extends T> lib)
 	{
-		list = new Vector<T> ();
+		list = new ArrayList<T> (lib.list.size ());
 		
 		add (lib);
 	}
 
 	public ItemLibrary (T item)
 	{
-		list = new Vector<T> ();
+		list = new ArrayList<T> (1);
 		
 		add (item);
 	}
 	
 	public ItemLibrary ()
 	{
-		list = new Vector<T> ();
+		list = new ArrayList<T> ();
 	}
 	
 	public ItemLibrary<T> add (ItemLibrary<? extends T> lib)
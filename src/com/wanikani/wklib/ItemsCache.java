@@ -1,10 +1,9 @@
 package com.wanikani.wklib;
 
 import java.util.EnumMap;
-import java.util.Hashtable;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Vector;
 
 import com.wanikani.wklib.ItemsCacheInterface.LevelData;
 
@@ -20,10 +19,11 @@ public class ItemsCache implements ItemsCacheInterface {
 		
 		public LevelCache ()
 		{
-			ht = new Hashtable<Integer, LevelData<T>> ();
+			ht = new HashMap<Integer, LevelData<T>> ();
 		}
 		
-		public LevelData<T> get (int level)
+		/* Not per-element locks: shards of the same fetch may call put concurrently */
+		public synchronized LevelData<T> get (int level)
 		{
 			LevelData<T> ans;
 			
@@ -32,7 +32,7 @@ public class ItemsCache implements ItemsCacheInterface {
 			return ans != null ? ans : new LevelData<T> ();
 		}
 
-		public void get (Map<Integer, LevelData <T>> data)
+		public synchronized void get (Map<Integer, LevelData <T>> data)
 		{
 			for (int level : data.keySet ())
 				data.put (level, get (level));
@@ -43,7 +43,7 @@ public class ItemsCache implements ItemsCacheInterface {
 			Map<Integer, LevelData <T>> map;
 			LevelData<T> ld;
 			
-			map = new Hashtable<Integer, LevelData <T>> ();
+			map = new HashMap<Integer, LevelData <T>> ();
 			for (T t : data.lib.list) {
 				ld = map.get (t.level);
 				if (ld == null) {
@@ -52,8 +52,12 @@ public class ItemsCache implements ItemsCacheInterface {
 				}
 				ld.lib.add (t);
 			}
+			for (LevelData<T> l : map.values ())
+				l.updateNextChange ();
 				
-			ht.putAll (map);
+			synchronized (this) {
+				ht.putAll (map);
+			}
 		}		
 	}
 
@@ -2,7 +2,7 @@ package com.wanikani.wklib;
 
 import java.io.Serializable;
 import java.util.Date;
-import java.util.Hashtable;
+import java.util.HashMap;
 import java.util.Map;
 
 public interface ItemsCacheInterface extends Serializable {
@@ -19,6 +19,10 @@ public interface ItemsCacheInterface extends Serializable {
 		
 		static final long serialVersionUID = 1L; 
 		
+		/* How long we trust a level that has pending items, i.e. items
+		 * whose next change depends on the user rather than on the SRS */
+		public static final long RECHECK_TIME = 30 * 60 * 1000;
+		
 		public Quality quality;
 		
 		public String etag;
@@ -27,25 +31,64 @@ public interface ItemsCacheInterface extends Serializable {
 		
 		public ItemLibrary<T> lib;
 		
+		/* Earliest time the contents of this level may change, or null
+		 * if they are not expected to change at all */
+		public Date nextChange;
+		
 		public LevelData (Date date, String etag, ItemLibrary<T> lib)
 		{
 			quality = Quality.GOOD;
 			this.date = date;
 			this.lib = lib;
 			this.etag = etag;
+			
+			updateNextChange ();
 		}
 		
+		/* Inventory only: the caller computed nextChange without
+		 * loading the items, so lib is null */
+		public LevelData (Date date, String etag, Date nextChange)
+		{
+			quality = Quality.GOOD;
+			this.date = date;
+			this.etag = etag;
+			this.nextChange = nextChange;
+		}
+
 		public LevelData ()
 		{
 			quality = Quality.MISSING;
 		}
 		
+		public void updateNextChange ()
+		{
+			Date available;
+			long next, t;
+			
+			next = Long.MAX_VALUE;
+			for (T item : lib.list) {
+				if (item.stats != null && item.stats.burned)
+					continue;
+				
+				available = item.getAvailableDate ();
+				if (item.stats == null || available == null || !available.after (date))
+					/* Locked, in the lessons queue or waiting for a review */
+					t = date.getTime () + RECHECK_TIME;
+				else
+					t = available.getTime ();
+				
+				next = Math.min (next, t);
+			}
+			
+			nextChange = next < Long.MAX_VALUE ? new Date (next) : null;
+		}
+		
 		public static<U extends Item> Map<Integer, LevelData <U>> createMap (int levels [])
 		{
 			Map<Integer, LevelData <U>> ans;
 			int i;
 			
-			ans = new Hashtable<Integer, LevelData <U>> ();
+			ans = new HashMap<Integer, LevelData <U>> (levels.length * 2);
 			for (i = 0; i < levels.length; i++)
 				ans.put (levels [i], new LevelData<U> ());
 			
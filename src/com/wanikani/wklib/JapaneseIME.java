@@ -1,6 +1,6 @@
 package com.wanikani.wklib;
 
-import java.util.Hashtable;
+import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
 
@@ -44,7 +44,7 @@ public class JapaneseIME {
 	
 	public JapaneseIME ()
 	{
-		map = new Hashtable<String, String> ();
+		map = new HashMap<String, String> ();
 		
 		populateTable ();
 	}
@@ -0,0 +1,76 @@
+package com.wanikani.wklib;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Reports to a meter the number of bytes flowing through a stream.
+ * Wire bytes (what the radio actually transfers) and decoded bytes 
+ * (what we get after decompression) are counted separately.
+ */
+class MeteredInputStream extends FilterInputStream {
+
+	Connection.Meter meter;
+	
+	boolean decoded;
+
+	public MeteredInputStream (Connection.Meter meter, InputStream is, boolean decoded)
+	{
+		super (is);
+
+		this.meter = meter;
+		this.decoded = decoded;
+	}
+	
+	private void count (int bytes)
+	{
+		if (decoded)
+			meter.decoded (bytes);
+		else
+			meter.count (bytes);
+	}
+
+	@Override
+	public int read ()
+		throws IOException
+	{
+		int ans;
+
+		ans = super.read ();
+		if (ans >= 0)
+			count (1);
+
+		return ans;
+	}
+
+	@Override
+	public int read (byte buf [], int off, int len)
+		throws IOException
+	{
+		int ans;
+
+		ans = super.read (buf, off, len);
+		if (ans > 0)
+			count (ans);
+
+		return ans;
+	}
+}
@@ -67,7 +67,8 @@ public class Radical extends Item {
 	@Override
 	public void fixup ()
 	{
-		hyphenatedMeaning = meaning;
+		/* Items read back from the DB have spaces: same URL (and DB key) either way */
+		hyphenatedMeaning = meaning.replace (' ', '-');
 		meaning = meaning.replace ('-', ' ');
 	}
 }
@@ -0,0 +1,234 @@
+package com.wanikani.wklib;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/* 
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * A short lived cache of the raw API responses. Each resource has its own
+ * time to live: within that time the cached document is returned as is,
+ * afterwards it is revalidated through ETag/Last-Modified.
+ * If a directory is supplied, entries are also kept on disk so that 
+ * different connections (e.g. the service and the activity) share them. 
+ */
+public class ResponseCache {
+	
+	public static class Entry {
+		
+		public Date date;
+		
+		public String etag;
+		
+		public Date modified;
+		
+		public String body;
+		
+		public Entry (Date date, String etag, Date modified, String body)
+		{
+			this.date = date;
+			this.etag = etag;
+			this.modified = modified;
+			this.body = body;
+		}
+		
+		public boolean isFresh (long ttl)
+		{
+			return System.currentTimeMillis () - date.getTime () < ttl;
+		}
+	}
+	
+	public static final long TTL_STUDY_QUEUE = 30 * 1000;
+	
+	public static final long TTL_SRS_DISTRIBUTION = 60 * 1000;
+
+	public static final long TTL_LEVEL_PROGRESSION = 60 * 1000;
+
+	public static final long TTL_CRITICAL_ITEMS = 5 * 60 * 1000;
+	
+	private static final int VERSION = 1;
+	
+	Map<String, Long> ttls;
+	
+	Map<String, Entry> entries;
+	
+	File dir;
+	
+	public ResponseCache ()
+	{
+		this (null);
+	}
+	
+	public ResponseCache (File dir)
+	{
+		this.dir = dir;
+		
+		ttls = new HashMap<String, Long> ();
+		entries = new HashMap<String, Entry> ();
+		
+		setTTL ("study-queue", TTL_STUDY_QUEUE);
+		setTTL ("srs-distribution", TTL_SRS_DISTRIBUTION);
+		setTTL ("level-progression", TTL_LEVEL_PROGRESSION);
+		setTTL ("critical-items", TTL_CRITICAL_ITEMS);
+	}
+	
+	public synchronized void setTTL (String resource, long ttl)
+	{
+		ttls.put (resource, ttl);
+	}
+	
+	public synchronized long getTTL (String resource)
+	{
+		Long ans;
+		
+		ans = ttls.get (resource);
+		
+		return ans != null ? ans : -1;
+	}
+	
+	public synchronized Entry get (String key, long ttl)
+	{
+		Entry ans, disk;
+		
+		ans = entries.get (key);
+		if ((ans == null || !ans.isFresh (ttl)) && dir != null) {
+			/* Someone else may have refreshed it in the meantime */
+			disk = load (key);
+			if (disk != null && (ans == null || disk.date.after (ans.date))) {
+				ans = disk;
+				entries.put (key, ans);
+			}
+		}
+		
+		return ans;
+	}
+	
+	public synchronized void put (String key, Entry entry)
+	{
+		entries.put (key, entry);
+		if (dir != null)
+			store (key, entry);
+	}
+	
+	public synchronized void flush ()
+	{
+		File files [];
+		int i;
+		
+		entries.clear ();
+		if (dir != null) {
+			files = dir.listFiles ();
+			if (files != null)
+				for (i = 0; i < files.length; i++)
+					files [i].delete ();
+		}
+	}
+	
+	private File getFile (String key)
+	{
+		return new File (dir, Integer.toHexString (key.hashCode ()));
+	}
+	
+	private Entry load (String key)
+	{
+		DataInputStream is;
+		String etag, body;
+		long date, modified;
+		File file;
+		byte buf [];
+		
+		file = getFile (key);
+		if (!file.exists ())
+			return null;
+		
+		is = null;
+		try {
+			is = new DataInputStream (new FileInputStream (file));
+			if (is.readInt () != VERSION || !is.readUTF ().equals (key))
+				return null;
+			date = is.readLong ();
+			etag = is.readBoolean () ? is.readUTF () : null;
+			modified = is.readLong ();
+			buf = new byte [is.readInt ()];
+			is.readFully (buf);
+			body = new String (buf, "UTF-8");
+			
+			return new Entry (new Date (date), etag, 
+							  modified != 0 ? new Date (modified) : null, body);
+			
+		} catch (IOException e) {
+			return null;
+		} finally {
+			try {
+				if (is != null)
+					is.close ();
+			} catch (IOException e) {
+				/* empty */
+			}
+		}
+	}
+	
+	private void store (String key, Entry entry)
+	{
+		DataOutputStream os;
+		File file, tmp;
+		byte buf [];
+		boolean ok;
+		
+		dir.mkdirs ();
+		file = getFile (key);
+		tmp = new File (dir, file.getName () + ".tmp");
+		
+		os = null;
+		ok = false;
+		try {
+			os = new DataOutputStream (new FileOutputStream (tmp));
+			os.writeInt (VERSION);
+			os.writeUTF (key);
+			os.writeLong (entry.date.getTime ());
+			os.writeBoolean (entry.etag != null);
+			if (entry.etag != null)
+				os.writeUTF (entry.etag);
+			os.writeLong (entry.modified != null ? entry.modified.getTime () : 0);
+			buf = entry.body.getBytes ("UTF-8");
+			os.writeInt (buf.length);
+			os.write (buf);
+			ok = true;
+		} catch (IOException e) {
+			/* The cache is just an optimization, so we can live without */
+		} finally {
+			try {
+				if (os != null)
+					os.close ();
+			} catch (IOException e) {
+				ok = false;
+			}
+		}
+		
+		/* Rename is atomic, so readers never see half-written files */
+		if (!ok || !tmp.renameTo (file))
+			tmp.delete ();
+	}
+}
@@ -0,0 +1,126 @@
+package com.wanikani.wklib;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Coalesces concurrent identical requests. The first caller for a given
+ * key performs the call, while the others wait for it to complete and
+ * get the same result (or the same exception). Since callers are free
+ * to modify what they get, each of the others is handed the copy
+ * made by Call.share.
+ */
+class SingleFlight {
+	
+	interface Call<V> {
+		
+		public V run ()
+			throws IOException;
+		
+		/* Returns what a caller that joined the flight gets */
+		public V share (V result);
+		
+	}
+	
+	static class Flight {
+		
+		CountDownLatch done;
+		
+		Object result;
+		
+		IOException error;
+		
+		RuntimeException rerror;
+		
+		public Flight ()
+		{
+			done = new CountDownLatch (1);
+		}
+		
+		public Object get ()
+			throws IOException
+		{
+			try {
+				done.await ();
+			} catch (InterruptedException e) {
+				throw new IOException ("Interrupted");
+			}
+			
+			if (error != null)
+				throw error;
+			if (rerror != null)
+				throw rerror;
+			
+			return result;
+		}
+	}
+	
+	/* Shared by all the connections that opt in */
+	static final SingleFlight SHARED = new SingleFlight ();
+	
+	Map<String, Flight> flights;
+	
+	public SingleFlight ()
+	{
+		flights = new HashMap<String, Flight> ();
+	}
+	
+	@SuppressWarnings ("unchecked")
+	public<V> V run (String key, Call<V> call)
+		throws IOException
+	{
+		boolean leader;
+		Flight flight;
+		V ans;
+		
+		synchronized (this) {
+			flight = flights.get (key);
+			leader = flight == null;
+			if (leader) {
+				flight = new Flight ();
+				flights.put (key, flight);
+			}
+		}
+		
+		if (!leader)
+			return call.share ((V) flight.get ());
+		
+		try {
+			ans = call.run ();
+			flight.result = ans;
+			
+			return ans;
+			
+		} catch (IOException e) {
+			flight.error = e;
+			throw e;
+		} catch (RuntimeException e) {
+			flight.rerror = e;
+			throw e;
+		} finally {
+			synchronized (this) {
+				flights.remove (key);
+			}
+			flight.done.countDown ();
+		}
+	}
+}
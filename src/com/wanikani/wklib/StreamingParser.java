@@ -0,0 +1,161 @@
+package com.wanikani.wklib;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Pull parser for the API responses. Instead of buffering the whole
+ * document and building its DOM, we walk the stream and build only one
+ * item object at a time, handing it to the factory straight away.
+ * Requires API level 11, so callers must fall back to the DOM path
+ * on older devices.
+ */
+class StreamingParser {
+
+	UserInformation ui;
+
+	JSONObject error;
+
+	JsonReader reader;
+
+	public StreamingParser (InputStream is)
+		throws IOException
+	{
+		reader = new JsonReader (new InputStreamReader (is, "UTF-8"));
+	}
+
+	public<T extends Item> ItemLibrary<T> parseItems (Item.Factory<T> factory)
+		throws IOException, JSONException
+	{
+		ItemLibrary<T> ans;
+		String name;
+
+		ans = new ItemLibrary<T> ();
+		reader.beginObject ();
+		while (reader.hasNext ()) {
+			name = reader.nextName ();
+			if (reader.peek () == JsonToken.NULL)
+				reader.nextNull ();
+			else if (name.equals ("user_information"))
+				ui = new UserInformation (readObject ());
+			else if (name.equals ("requested_information")) {
+				reader.beginArray ();
+				while (reader.hasNext ())
+					ans.add (factory.deserialize (readObject ()));
+				reader.endArray ();
+			} else if (name.equals ("error")) {
+				error = new JSONObject ();
+				error.put ("error", readObject ());
+			} else
+				reader.skipValue ();
+		}
+		reader.endObject ();
+
+		if (ui == null)
+			throw ApplicationException.buildFromJSON
+				(error != null ? error : new JSONObject ());
+
+		return ans;
+	}
+
+	public void close ()
+	{
+		try {
+			reader.close ();
+		} catch (IOException e) {
+			/* empty */
+		}
+	}
+
+	private JSONObject readObject ()
+		throws IOException, JSONException
+	{
+		JSONObject ans;
+
+		ans = new JSONObject ();
+		reader.beginObject ();
+		while (reader.hasNext ())
+			ans.put (reader.nextName (), readValue ());
+		reader.endObject ();
+
+		return ans;
+	}
+
+	private JSONArray readArray ()
+		throws IOException, JSONException
+	{
+		JSONArray ans;
+
+		ans = new JSONArray ();
+		reader.beginArray ();
+		while (reader.hasNext ())
+			ans.put (readValue ());
+		reader.endArray ();
+
+		return ans;
+	}
+
+	private Object readValue ()
+		throws IOException, JSONException
+	{
+		switch (reader.peek ()) {
+		case BEGIN_OBJECT:
+			return readObject ();
+
+		case BEGIN_ARRAY:
+			return readArray ();
+
+		case BOOLEAN:
+			return reader.nextBoolean ();
+
+		case NUMBER:
+			return readNumber (reader.nextString ());
+
+		case NULL:
+			reader.nextNull ();
+			return JSONObject.NULL;
+
+		default:
+			return reader.nextString ();
+		}
+	}
+
+	private static Object readNumber (String s)
+	{
+		/* Same as the DOM tokener: integers if possible, doubles otherwise */
+		if (s.indexOf ('.') < 0 && s.indexOf ('e') < 0 && s.indexOf ('E') < 0) {
+			try {
+				return Long.parseLong (s);
+			} catch (NumberFormatException e) {
+				/* fall through */
+			}
+		}
+
+		return Double.parseDouble (s);
+	}
+}
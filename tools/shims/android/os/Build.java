@@ -0,0 +1,32 @@
+package android.os;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Desktop stand-in for the framework class, which is a stub in android.jar.
+ * The API level is taken from the "sdk" system property, so that tools can
+ * exercise the fallbacks for old devices too.
+ */
+public class Build {
+
+	public static class VERSION {
+
+		public static final int SDK_INT = Integer.getInteger ("sdk", 18);
+
+	}
+}
@@ -0,0 +1,127 @@
+package android.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Desktop stand-in for the framework class, which is a stub in android.jar.
+ * The framework reader and the gson one come from the same code and have
+ * the same interface, so we simply delegate. Needs gson in the classpath.
+ */
+public class JsonReader implements Closeable {
+
+	com.google.gson.stream.JsonReader reader;
+
+	public JsonReader (Reader in)
+	{
+		reader = new com.google.gson.stream.JsonReader (in);
+	}
+
+	public void beginArray ()
+		throws IOException
+	{
+		reader.beginArray ();
+	}
+
+	public void endArray ()
+		throws IOException
+	{
+		reader.endArray ();
+	}
+
+	public void beginObject ()
+		throws IOException
+	{
+		reader.beginObject ();
+	}
+
+	public void endObject ()
+		throws IOException
+	{
+		reader.endObject ();
+	}
+
+	public boolean hasNext ()
+		throws IOException
+	{
+		return reader.hasNext ();
+	}
+
+	public JsonToken peek ()
+		throws IOException
+	{
+		return JsonToken.valueOf (reader.peek ().name ());
+	}
+
+	public String nextName ()
+		throws IOException
+	{
+		return reader.nextName ();
+	}
+
+	public String nextString ()
+		throws IOException
+	{
+		return reader.nextString ();
+	}
+
+	public boolean nextBoolean ()
+		throws IOException
+	{
+		return reader.nextBoolean ();
+	}
+
+	public void nextNull ()
+		throws IOException
+	{
+		reader.nextNull ();
+	}
+
+	public double nextDouble ()
+		throws IOException
+	{
+		return reader.nextDouble ();
+	}
+
+	public long nextLong ()
+		throws IOException
+	{
+		return reader.nextLong ();
+	}
+
+	public int nextInt ()
+		throws IOException
+	{
+		return reader.nextInt ();
+	}
+
+	public void skipValue ()
+		throws IOException
+	{
+		reader.skipValue ();
+	}
+
+	public void close ()
+		throws IOException
+	{
+		reader.close ();
+	}
+}
@@ -0,0 +1,45 @@
+package android.util;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Desktop stand-in for the framework class, which is a stub in android.jar.
+ */
+public enum JsonToken {
+
+	BEGIN_ARRAY,
+
+	END_ARRAY,
+
+	BEGIN_OBJECT,
+
+	END_OBJECT,
+
+	NAME,
+
+	STRING,
+
+	NUMBER,
+
+	BOOLEAN,
+
+	NULL,
+
+	END_DOCUMENT
+
+}
@@ -0,0 +1,608 @@
+package com.wanikani.androidnotifier;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import com.wanikani.wklib.AuthenticationException;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * An offline, discrete-event simulator of the {@link NotifierStateMachine}.
+ * It replaces the clock with a virtual one, and the WaniKani server with
+ * a {@link Script} of review bursts, review sessions, network errors and
+ * authentication failures. The state machine is fed at each wakeup it
+ * schedules, and whenever connectivity comes back, exactly as
+ * {@link NotificationService} would do.
+ * <p>
+ * The simulator reports the number of wakeups and polls, how long after
+ * the threshold is reached the notification is shown, and how much time
+ * is spent backing off after errors. This way, the battery and network
+ * cost of a change to the scheduling policy can be measured before it ships.
+ * <p>
+ * Forecasts are built from the same script, so by default they are only
+ * as wrong as the <tt>coverage</tt> of the items cache makes them.
+ * In the <i>stale</i> scenario the cache is refreshed only when the user
+ * opens the app, so it lags behind the server: the reviews scheduled
+ * since then (e.g. by the lessons and reviews of the last session) are
+ * missing, while the study queue reports them.
+ * <p>
+ * It does not need a device: it can be run on any JVM, with
+ * <tt>android.jar</tt> in the classpath:
+ * <pre>
+ * java com.wanikani.androidnotifier.NotifierSimulator [days [seed [threshold]]]
+ * </pre>
+ * Depends on: src/com/wanikani/androidnotifier/NotifierStateMachine.java,
+ * ReviewForecast.java, DashboardData.java and NotifierInterface.java
+ */
+public class NotifierSimulator {
+
+	/**
+	 * A scripted account. All the times are in milliseconds, and
+	 * all the arrays are sorted in ascending order.
+	 */
+	public static class Script {
+
+		/// Simulation start
+		long start;
+
+		/// Simulation end
+		long stop;
+
+		/// When each review becomes available
+		long reviews [];
+
+		/// When each review is scheduled, i.e. when the server starts
+		/// reporting it. Same order as {@link #reviews}
+		long scheduled [];
+
+		/// When each review is completed by the user
+		long done [];
+
+		/// When the user opens the app to review
+		long sessions [];
+
+		/// Network outages, as <tt>[start, stop)</tt> pairs
+		long errors [][];
+
+		/// Authentication failures, as <tt>[start, stop)</tt> pairs
+		long authErrors [][];
+
+		/**
+		 * Builds a random, but reproducible, script.
+		 * A few bursts of reviews become available each day, and the user
+		 * reviews them in two or three sessions a day, at a pace of
+		 * {@link NotifierSimulator#REVIEW_TIME} per item.
+		 * Short network outages happen about once a day, and a long
+		 * authentication failure (e.g. an API key change) happens once.
+		 * Each review is scheduled one SRS interval before it becomes
+		 * available.
+		 * 	@param start the simulation start
+		 *	@param days the number of days to simulate
+		 *	@param seed the random seed
+		 *	@return the script
+		 */
+		public static Script random (long start, int days, long seed)
+		{
+			List<Long> reviews, sessions;
+			List<long []> errors;
+			Random rnd, srs;
+			Script ans;
+			long t, day;
+			int i, j, n;
+
+			rnd = new Random (seed);
+			/* A separate generator, so that adding it did not change the other scripts */
+			srs = new Random (seed + 1);
+			ans = new Script ();
+			ans.start = start;
+			ans.stop = start + days * DAY;
+
+			reviews = new ArrayList<Long> ();
+			sessions = new ArrayList<Long> ();
+			errors = new ArrayList<long []> ();
+			for (i = 0; i < days; i++) {
+				day = start + i * DAY;
+
+				/* Bursts are aligned to the quarter of an hour, as in WK */
+				n = 3 + rnd.nextInt (5);
+				for (j = 0; j < n; j++) {
+					t = day + rnd.nextInt (96) * QUARTER;
+					for (int k = 1 + rnd.nextInt (30); k > 0; k--)
+						reviews.add (t);
+				}
+
+				n = 2 + rnd.nextInt (2);
+				for (j = 0; j < n; j++)
+					sessions.add (day + 7 * HOUR + rnd.nextInt (16 * 60) * MINUTE);
+
+				if (rnd.nextInt (3) > 0) {
+					t = day + rnd.nextInt (24 * 60) * MINUTE;
+					errors.add (new long [] { t, t + (5 + rnd.nextInt (120)) * MINUTE });
+				}
+			}
+
+			ans.reviews = toArray (reviews);
+			ans.scheduled = new long [ans.reviews.length];
+			for (i = 0; i < ans.reviews.length; i++)
+				ans.scheduled [i] = ans.reviews [i] - SRS_INTERVALS [srs.nextInt (SRS_INTERVALS.length)];
+			ans.sessions = toArray (sessions);
+			ans.errors = errors.toArray (new long [errors.size ()][]);
+
+			t = start + rnd.nextInt (days * 24) * HOUR;
+			ans.authErrors = new long [][] { { t, t + 6 * HOUR } };
+
+			ans.done = ans.review ();
+
+			return ans;
+		}
+
+		/**
+		 * Converts a list of times into a sorted array.
+		 * 	@param list the list
+		 * 	@return the array
+		 */
+		private static long [] toArray (List<Long> list)
+		{
+			long ans [];
+			int i;
+
+			ans = new long [list.size ()];
+			for (i = 0; i < ans.length; i++)
+				ans [i] = list.get (i);
+			Arrays.sort (ans);
+
+			return ans;
+		}
+
+		/**
+		 * Computes when each review is completed. At each session, the user
+		 * reviews all the items that are available at its start.
+		 * 	@return the completion times
+		 */
+		private long [] review ()
+		{
+			long ans [];
+			long t;
+			int i, n;
+
+			ans = new long [reviews.length];
+			n = 0;
+			for (long s : sessions) {
+				t = Math.max (s, n > 0 ? ans [n - 1] : s);
+				for (i = count (reviews, t) - n; i > 0; i--) {
+					t += REVIEW_TIME;
+					ans [n++] = t;
+				}
+			}
+
+			return Arrays.copyOf (ans, n);
+		}
+
+		/**
+		 * Returns the number of pending reviews at a given time.
+		 * 	@param t the time
+		 * 	@return the number of reviews
+		 */
+		public int getReviewsAvailable (long t)
+		{
+			return count (reviews, t) - count (done, t);
+		}
+
+		/**
+		 * Returns the study queue the server would return at a given time.
+		 * 	@param t the time
+		 * 	@return the study queue, or an error
+		 */
+		public DashboardData getStudyQueue (long t)
+		{
+			int i;
+
+			if (inside (authErrors, t) != null)
+				return new DashboardData (new AuthenticationException ("user_not_found", "simulated"));
+			if (inside (errors, t) != null)
+				return new DashboardData (new IOException ("simulated"));
+
+			i = count (reviews, t);
+
+			return new DashboardData (getReviewsAvailable (t),
+									  i < reviews.length ? new Date (reviews [i]) : null,
+									  count (reviews, t + HOUR) - i,
+									  count (reviews, t + DAY) - i);
+		}
+
+		/**
+		 * Builds the forecast that the items cache would provide at a
+		 * given time.
+		 * 	@param t the time
+		 * 	@param refreshed when the cache was last refreshed. Reviews
+		 * 		scheduled after that are not in the cache
+		 * 	@param coverage the fraction of items that are in the cache
+		 *  @param rnd the random generator used to drop items from the cache
+		 * 	@return the forecast
+		 */
+		public ReviewForecast getForecast (long t, long refreshed, float coverage, Random rnd)
+		{
+			long times [];
+			int i, n;
+
+			times = new long [reviews.length];
+			n = 0;
+			for (i = count (reviews, t); i < reviews.length; i++) {
+				if (reviews [i] > t + ReviewForecast.HORIZON)
+					break;
+				if (scheduled [i] <= refreshed && rnd.nextFloat () < coverage)
+					times [n++] = reviews [i];
+			}
+
+			return new ReviewForecast (Arrays.copyOf (times, n));
+		}
+	}
+
+	/**
+	 * The simulation results.
+	 */
+	public static class Report {
+
+		/// Number of simulated days
+		int days;
+
+		/// Number of timer events
+		int wakeups;
+
+		/// Number of study queue requests
+		int polls;
+
+		/// Number of failed study queue requests
+		int failures;
+
+		/// Number of times the notification appeared
+		int notifications;
+
+		/// Number of times the threshold was reached
+		int crossings;
+
+		/// Number of times the user cleared the queue before being notified
+		int missed;
+
+		/// Number of notifications shown after the threshold was reached
+		int notified;
+
+		/// Sum of the notification latencies
+		long latency;
+
+		/// Worst notification latency
+		long maxLatency;
+
+		/// Time spent waiting in the error state
+		long backoff;
+
+		/**
+		 * Prints a row of the report.
+		 * 	@param os the output stream
+		 * 	@param name the name of the policy
+		 */
+		public void print (PrintStream os, String name)
+		{
+			os.printf ("%-24s %8.1f %8.1f %6d %6d %6d %8.1f %8.1f %8.1f%n",
+					   name, wakeups / (float) days, polls / (float) days,
+					   failures, notifications, missed,
+					   notified > 0 ? latency / (float) notified / MINUTE : 0f,
+					   maxLatency / (float) MINUTE,
+					   backoff / (float) HOUR);
+		}
+
+		/**
+		 * Prints the report header.
+		 * 	@param os the output stream
+		 */
+		public static void header (PrintStream os)
+		{
+			os.printf ("%-24s %8s %8s %6s %6s %6s %8s %8s %8s%n",
+					   "policy", "wake/d", "poll/d", "fail", "notif", "missed",
+					   "lat(m)", "maxlat", "backoff(h)");
+		}
+	}
+
+	/**
+	 * The state machine, with a virtual clock.
+	 */
+	class SimulatedStateMachine extends NotifierStateMachine {
+
+		/**
+		 * Constructor
+		 * 	@param ifc the notification interface
+		 */
+		public SimulatedStateMachine (NotifierInterface ifc)
+		{
+			super (ifc);
+		}
+
+		@Override
+		long now ()
+		{
+			return now;
+		}
+	}
+
+	/**
+	 * The notification interface. It records the requests of the
+	 * state machine, instead of setting alarms and showing icons.
+	 */
+	class Recorder implements NotifierInterface {
+
+		@Override
+		public void schedule (NotifierStateMachine fsm, Date date)
+		{
+			wakeup = date.getTime ();
+		}
+
+		@Override
+		public void showNotification (int reviews)
+		{
+			if (!shown) {
+				report.notifications++;
+				if (crossing >= 0) {
+					report.notified++;
+					report.latency += now - crossing;
+					report.maxLatency = Math.max (report.maxLatency, now - crossing);
+				}
+				crossing = -1;
+			}
+			shown = true;
+		}
+
+		@Override
+		public void hideNotification ()
+		{
+			shown = false;
+		}
+	}
+
+	/// One minute
+	static final long MINUTE = 60 * 1000L;
+
+	/// Fifteen minutes
+	static final long QUARTER = 15 * MINUTE;
+
+	/// One hour
+	static final long HOUR = 60 * MINUTE;
+
+	/// One day
+	static final long DAY = 24 * HOUR;
+
+	/// Time needed to review an item
+	static final long REVIEW_TIME = 20 * 1000L;
+
+	/// The SRS intervals of the first stages: how long before becoming
+	/// available a review is scheduled
+	static final long SRS_INTERVALS [] = { 4 * HOUR, 8 * HOUR, DAY, 2 * DAY, 7 * DAY };
+
+	/// The script
+	Script script;
+
+	/// The notification threshold
+	int threshold;
+
+	/// The fraction of items in the cache, or a negative number if forecasts are disabled
+	float coverage;
+
+	/// Set if the cache is refreshed only when the user opens the app
+	boolean stale;
+
+	/// The random generator used to build forecasts
+	Random rnd;
+
+	/// The virtual clock
+	long now;
+
+	/// The next timer event
+	long wakeup;
+
+	/// Set if the notification is being shown
+	boolean shown;
+
+	/// When the threshold was last reached, or -1 if it was not or the user was notified
+	long crossing;
+
+	/// The results
+	Report report;
+
+	/**
+	 * Constructor.
+	 * 	@param script the script
+	 * 	@param threshold the notification threshold
+	 * 	@param coverage the fraction of items that are in the cache, or a
+	 * 		negative number if the state machine should not get any forecast
+	 * 	@param stale set if the cache is refreshed only when the user opens
+	 * 		the app, instead of being up to date at each poll
+	 */
+	public NotifierSimulator (Script script, int threshold, float coverage, boolean stale)
+	{
+		this.script = script;
+		this.threshold = threshold;
+		this.coverage = coverage;
+		this.stale = stale;
+	}
+
+	/**
+	 * Runs the simulation.
+	 * 	@param seed the seed used to drop items from the cache
+	 * 	@return the results
+	 */
+	public Report run (long seed)
+	{
+		NotifierStateMachine fsm;
+		NotifierStateMachine.Event event;
+		ReviewForecast forecast;
+		DashboardData dd;
+		int r, d, s, e, i, pending;
+		long next, t, refreshed;
+
+		rnd = new Random (seed);
+		report = new Report ();
+		report.days = (int) ((script.stop - script.start) / DAY);
+		fsm = new SimulatedStateMachine (new Recorder ());
+
+		now = script.start;
+		crossing = -1;
+		shown = false;
+		r = d = s = e = pending = 0;
+		event = NotifierStateMachine.Event.E_INITIAL;
+		while (true) {
+
+			dd = script.getStudyQueue (now);
+			/* The server knows the whole script, and so does an up to date cache */
+			refreshed = Long.MAX_VALUE;
+			if (stale) {
+				i = count (script.sessions, now);
+				refreshed = i > 0 ? script.sessions [i - 1] : script.start;
+			}
+			forecast = coverage >= 0 ? 
+					script.getForecast (now, refreshed, coverage, rnd) : null;
+
+			report.polls++;
+			if (event == NotifierStateMachine.Event.E_SOLICITED)
+				report.wakeups++;
+			if (dd.e != null)
+				report.failures++;
+
+			fsm.next (event, threshold, dd, forecast);
+
+			/* Sessions that start while the notification is shown are taps */
+			while (s < script.sessions.length && script.sessions [s] <= now)
+				s++;
+
+			/* Connectivity comes back at the end of each outage */
+			while (e < script.errors.length && script.errors [e][1] <= now)
+				e++;
+
+			next = wakeup;
+			event = NotifierStateMachine.Event.E_SOLICITED;
+			if (e < script.errors.length && script.errors [e][1] < next) {
+				next = script.errors [e][1];
+				event = NotifierStateMachine.Event.E_UNSOLICITED;
+			}
+			if (s < script.sessions.length && shown && script.sessions [s] < next) {
+				next = script.sessions [s];
+				event = NotifierStateMachine.Event.E_TAP;
+			}
+			if (next > script.stop)
+				break;
+
+			if (dd.e != null)
+				report.backoff += next - now;
+
+			/* Replay what happened in the meantime, to find out when
+			 * the threshold was reached. Only new reviews can make the
+			 * queue cross it: if it is still above the threshold while the
+			 * user is reviewing, there is no need for a notification */
+			while (true) {
+				if (r < script.reviews.length && script.reviews [r] <= next &&
+					(d >= script.done.length || script.reviews [r] <= script.done [d])) {
+					t = script.reviews [r++];
+					if (++pending == threshold && !shown) {
+						crossing = t;
+						report.crossings++;
+					}
+				} else if (d < script.done.length && script.done [d] <= next) {
+					d++;
+					if (--pending < threshold && crossing >= 0) {
+						crossing = -1;
+						report.missed++;
+					}
+				} else
+					break;
+			}
+
+			now = next;
+		}
+
+		return report;
+	}
+
+	/**
+	 * Returns the number of times that are less than or equal to a given time.
+	 * 	@param times the times, in ascending order
+	 * 	@param t the time
+	 * 	@return the count
+	 */
+	static int count (long times [], long t)
+	{
+		int i;
+
+		i = Arrays.binarySearch (times, t);
+		if (i < 0)
+			return -i - 1;
+
+		while (i < times.length && times [i] <= t)
+			i++;
+
+		return i;
+	}
+
+	/**
+	 * Looks for the interval containing a given time.
+	 * 	@param intervals the intervals
+	 * 	@param t the time
+	 * 	@return the interval, or <tt>null</tt>
+	 */
+	static long [] inside (long intervals [][], long t)
+	{
+		for (long i [] : intervals)
+			if (i [0] <= t && t < i [1])
+				return i;
+
+		return null;
+	}
+
+	/**
+	 * Simulates the same script with and without forecasts, and prints
+	 * the results on stdout.
+	 * 	@param args the number of days, the seed and the threshold
+	 * 		(all optional)
+	 */
+	public static void main (String args [])
+	{
+		Script script;
+		long seed;
+		int days, threshold;
+
+		days = args.length > 0 ? Integer.parseInt (args [0]) : 30;
+		seed = args.length > 1 ? Long.parseLong (args [1]) : 42;
+		threshold = args.length > 2 ? Integer.parseInt (args [2]) : 1;
+
+		/* Midnight, so that sessions happen during the day */
+		script = Script.random ((System.currentTimeMillis () / DAY + 1) * DAY,
+								days, seed);
+
+		System.out.printf ("%d days, %d reviews, %d sessions, %d outages, threshold %d%n",
+						   days, script.reviews.length, script.sessions.length,
+						   script.errors.length, threshold);
+		Report.header (System.out);
+		new NotifierSimulator (script, threshold, -1, false).run (seed).print (System.out, "polling");
+		new NotifierSimulator (script, threshold, 1, false).run (seed).print (System.out, "forecast");
+		new NotifierSimulator (script, threshold, 0.7f, false).run (seed).print (System.out, "forecast, 70% cached");
+		new NotifierSimulator (script, threshold, 1, true).run (seed).print (System.out, "forecast, stale cache");
+	}
+}
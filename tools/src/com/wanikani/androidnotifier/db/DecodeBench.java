@@ -0,0 +1,233 @@
+package com.wanikani.androidnotifier.db;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Date;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.wanikani.wklib.Item;
+import com.wanikani.wklib.SRSLevel;
+import com.wanikani.wklib.Vocabulary;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Cost of decoding items from a cursor by position, as ItemsTable.buildItem
+ * does, against looking up each column by name, as it used to.
+ * The vocabulary of a synthetic account is stored once, then the whole
+ * table is read through the table projection and:
+ * - scan: only walked, to tell the cursor cost apart
+ * - position: decoded by buildItem
+ * - name: decoded by the by-name reference below
+ * For each we report the median time of a pass and the rows per second.
+ * Both decoders must build the same items, which is checked first.
+ * Must run on a device (or emulator), since it needs the real SQLite.
+ * Depends on: src/com/wanikani/wklib/*.java,
+ *   src/com/wanikani/androidnotifier/db/ItemsDatabase.java,
+ *   tools/src/com/wanikani/androidnotifier/db/ToolContext.java,
+ *   tools/src/com/wanikani/androidnotifier/db/SyntheticAccount.java
+ * Usage: DecodeBench [dir [levels [runs]]]
+ */
+public class DecodeBench {
+
+	interface Decoder {
+
+		public Vocabulary decode (Cursor c);
+
+	}
+
+	static ItemsDatabase.ItemsTable<Vocabulary> table;
+
+	static SQLiteDatabase db;
+
+	/* The decoder of the baseline, one getColumnIndex per field */
+	static class ByName implements Decoder {
+
+		Date getDate (Cursor c, String col)
+		{
+			int idx;
+
+			idx = c.getColumnIndex (col);
+
+			return !c.isNull (idx) ? new Date (c.getLong (idx)) : null;
+		}
+
+		Item.Performance loadPerformance (Cursor c, String correct, String incorrect,
+										  String maxStreak, String currentStreak)
+		{
+			Item.Performance ans;
+
+			if (c.isNull (c.getColumnIndex (correct)))
+				return null;
+
+			ans = new Item.Performance ();
+			ans.correct = c.getInt (c.getColumnIndex (correct));
+			ans.incorrect = c.getInt (c.getColumnIndex (incorrect));
+			ans.maxStreak = c.getInt (c.getColumnIndex (maxStreak));
+			ans.currentStreak = c.getInt (c.getColumnIndex (currentStreak));
+
+			return ans;
+		}
+
+		public Vocabulary decode (Cursor c)
+		{
+			Item.Stats stats;
+			Vocabulary i;
+
+			i = new Vocabulary ();
+			i.character = c.getString (c.getColumnIndex ("character"));
+			i.meaning = c.getString (c.getColumnIndex ("meaning"));
+			i.level = c.getInt (c.getColumnIndex ("level"));
+
+			if (!c.isNull (c.getColumnIndex ("srs"))) {
+				stats = new Item.Stats ();
+				stats.srs = SRSLevel.fromOrdinal (c.getInt (c.getColumnIndex ("srs")));
+				stats.availableDate = getDate (c, "available_date");
+				stats.burnedDate = getDate (c, "burned_date");
+				stats.burned = c.getInt (c.getColumnIndex ("burned")) != 0;
+
+				stats.reading = loadPerformance (c, "reading_correct", "reading_incorrect",
+												 "reading_max_streak", "reading_current_streak");
+				stats.meaning = loadPerformance (c, "meaning_correct", "meaning_incorrect",
+												 "meaning_max_streak", "meaning_current_streak");
+
+				stats.readingNote = c.getString (c.getColumnIndex ("reading_note"));
+				stats.meaningNote = c.getString (c.getColumnIndex ("meaning_note"));
+				stats.userSynonyms = table.parseStringArray (c.getString (c.getColumnIndex ("user_synonyms")));
+
+				i.setStats (stats);
+			}
+
+			i.setUnlockedDate (getDate (c, "unlocked_date"));
+			i.kana = c.getString (c.getColumnIndex ("kana"));
+
+			return i;
+		}
+	}
+
+	static class ByPosition implements Decoder {
+
+		public Vocabulary decode (Cursor c)
+		{
+			return table.buildItem (c);
+		}
+	}
+
+	static int pass (Decoder d)
+	{
+		Cursor c;
+		int n;
+
+		n = 0;
+		c = db.query (table.getTable (), table.projection (), null, null, null, null, null);
+		try {
+			while (c.moveToNext ()) {
+				if (d != null)
+					d.decode (c);
+				n++;
+			}
+		} finally {
+			c.close ();
+		}
+
+		return n;
+	}
+
+	static void measure (String name, Decoder d, int runs)
+	{
+		long times [], start;
+		int i, rows;
+
+		/* Warm up */
+		rows = pass (d);
+
+		times = new long [runs];
+		for (i = 0; i < runs; i++) {
+			start = System.nanoTime ();
+			pass (d);
+			times [i] = (System.nanoTime () - start) / 1000;
+		}
+		Arrays.sort (times);
+
+		System.out.println (String.format ("%-9s  %10d  %10d", name, times [runs / 2],
+										   rows * 1000000L / Math.max (1, times [runs / 2])));
+	}
+
+	static boolean same (Vocabulary a, Vocabulary b)
+	{
+		return table.getKey (a).equals (table.getKey (b)) &&
+				table.contentHash (a) == table.contentHash (b);
+	}
+
+	static boolean check ()
+	{
+		Decoder pos, name;
+		Cursor c;
+
+		pos = new ByPosition ();
+		name = new ByName ();
+		c = db.query (table.getTable (), table.projection (), null, null, null, null, null);
+		try {
+			while (c.moveToNext ())
+				if (!same (pos.decode (c), name.decode (c)))
+					return false;
+		} finally {
+			c.close ();
+		}
+
+		return true;
+	}
+
+	public static void main (String args [])
+		throws Exception
+	{
+		SyntheticAccount account;
+		ToolContext ctxt;
+		ItemsDatabase idb;
+		int runs;
+		File dir;
+
+		dir = new File (args.length > 0 ? args [0] : "/data/local/tmp/decodebench");
+		account = new SyntheticAccount (args.length > 1 ? Integer.parseInt (args [1]) : 60, 1);
+		runs = args.length > 2 ? Integer.parseInt (args [2]) : 20;
+
+		ctxt = new ToolContext (dir);
+		ctxt.deleteDatabase ("items.db");
+		idb = new ItemsDatabase (ctxt);
+		account.store (idb);
+		table = idb.getTable (Item.Type.VOCABULARY);
+
+		db = SQLiteDatabase.openOrCreateDatabase (ctxt.getDatabasePath ("items.db"), null);
+		try {
+			if (!check ()) {
+				System.out.println ("FAIL: the decoders disagree");
+				System.exit (1);
+			}
+
+			System.out.println (account.vocab.list.size () + " rows, " + runs + " runs");
+			System.out.println ("decoder    median(us)    rows/s");
+			measure ("scan", null, runs);
+			measure ("position", new ByPosition (), runs);
+			measure ("name", new ByName (), runs);
+		} finally {
+			db.close ();
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package com.wanikani.androidnotifier.db;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Map;
+
+import com.wanikani.wklib.Item;
+import com.wanikani.wklib.ItemsCacheInterface.LevelData;
+import com.wanikani.wklib.Vocabulary;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Cost of opening the items database on each call, against keeping the
+ * shared handle open through ItemsDatabase.hold(), as the main activity
+ * does. A synthetic account is stored once, then we time:
+ * - level: one get(level) per level, as the item list does when browsing
+ * - all: a single get(Map) of all the levels, as the toxic filter used to
+ * - readers: the same get(level) pass run by several threads at once,
+ *   which only overlap if the handle is shared and WAL is enabled
+ * For each we report the median and minimum time of a pass.
+ * Must run on a device (or emulator), since it needs the real SQLite.
+ * Depends on: src/com/wanikani/wklib/*.java,
+ *   src/com/wanikani/androidnotifier/db/ItemsDatabase.java,
+ *   tools/src/com/wanikani/androidnotifier/db/ToolContext.java,
+ *   tools/src/com/wanikani/androidnotifier/db/SyntheticAccount.java
+ * Usage: HandleBench [dir [levels [runs [threads]]]]
+ */
+public class HandleBench {
+
+	interface Op {
+
+		public void run ()
+			throws Exception;
+
+	}
+
+	static ItemsDatabase idb;
+
+	static SyntheticAccount account;
+
+	static void measure (String name, Op op, int runs)
+		throws Exception
+	{
+		long times [], start;
+		int i;
+
+		/* Warm up */
+		op.run ();
+
+		times = new long [runs];
+		for (i = 0; i < runs; i++) {
+			start = System.nanoTime ();
+			op.run ();
+			times [i] = (System.nanoTime () - start) / 1000;
+		}
+		Arrays.sort (times);
+
+		System.out.println (String.format ("%-16s  %10d  %8d", name, times [runs / 2], times [0]));
+	}
+
+	static void levels ()
+	{
+		int i;
+
+		for (i = 1; i <= account.levels; i++)
+			idb.<Vocabulary>getTable (Item.Type.VOCABULARY).get (i);
+	}
+
+	static void all ()
+	{
+		Map<Integer, LevelData<Vocabulary>> data;
+
+		data = LevelData.createMap (account.getLevels ());
+		idb.<Vocabulary>getTable (Item.Type.VOCABULARY).get (data);
+	}
+
+	static void readers (int threads)
+		throws Exception
+	{
+		Thread t [];
+		int i;
+
+		t = new Thread [threads];
+		for (i = 0; i < threads; i++) {
+			t [i] = new Thread () {
+				public void run ()
+				{
+					levels ();
+				}
+			};
+			t [i].start ();
+		}
+		for (i = 0; i < threads; i++)
+			t [i].join ();
+	}
+
+	static void pass (String sfx, int runs, final int threads)
+		throws Exception
+	{
+		measure ("level " + sfx, new Op () {
+			public void run ()
+			{
+				levels ();
+			}
+		}, runs);
+
+		measure ("all " + sfx, new Op () {
+			public void run ()
+			{
+				all ();
+			}
+		}, runs);
+
+		measure ("readers " + sfx, new Op () {
+			public void run () throws Exception
+			{
+				readers (threads);
+			}
+		}, runs);
+	}
+
+	public static void main (String args [])
+		throws Exception
+	{
+		ToolContext ctxt;
+		int runs, threads;
+		File dir;
+
+		dir = new File (args.length > 0 ? args [0] : "/data/local/tmp/handlebench");
+		account = new SyntheticAccount (args.length > 1 ? Integer.parseInt (args [1]) : 60, 1);
+		runs = args.length > 2 ? Integer.parseInt (args [2]) : 20;
+		threads = args.length > 3 ? Integer.parseInt (args [3]) : 4;
+
+		ctxt = new ToolContext (dir);
+		/* Start from scratch, so that each run stores the same rows */
+		ctxt.deleteDatabase ("items.db");
+		idb = new ItemsDatabase (ctxt);
+		account.store (idb);
+
+		System.out.println (account.size () + " items, " + account.levels + " levels, " +
+							runs + " runs, " + threads + " readers");
+		System.out.println ("pass              median(us)  min(us)");
+
+		pass ("open", runs, threads);
+
+		idb.hold ();
+		try {
+			pass ("held", runs, threads);
+		} finally {
+			idb.unhold ();
+		}
+	}
+}
@@ -0,0 +1,170 @@
+package com.wanikani.androidnotifier.db;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.wanikani.androidnotifier.graph.Pager.Interval;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Visible-range latency of the history page cache. A user scrolls a
+ * plot from the last page back to the first one and then forward again,
+ * requesting a new page every "think" milliseconds. Each request goes
+ * through HistoryDatabaseCache.getRange, and each range costs one query:
+ * a fixed cost plus a cost per page. Ranges load in parallel, as they do
+ * on the thread pool executor.
+ * For each request we record how long the page stays invisible, i.e. the
+ * time until its range completes (zero on a hit). Prefetch 0 is the old
+ * behaviour, one query per requested page.
+ * Pages are never evicted, as in the app.
+ * Depends on: src/com/wanikani/androidnotifier/db/HistoryDatabaseCache.java,
+ *   src/com/wanikani/androidnotifier/graph/Pager.java
+ * Usage: PrefetchBench [query-ms [page-ms [days]]]
+ */
+public class PrefetchBench {
+
+	/* Same as Pager */
+	static final int PAGE_SIZE = 30;
+
+	static final int THINK_TIMES [] = { 50, 200, 1000 };
+
+	static class Result {
+
+		int requests;
+
+		int hits;
+
+		int queries;
+
+		long latencies [];
+
+		Result (int n)
+		{
+			latencies = new long [n];
+		}
+
+		long percentile (int p)
+		{
+			long sorted [];
+
+			sorted = Arrays.copyOf (latencies, requests);
+			Arrays.sort (sorted);
+
+			return requests > 0 ? sorted [Math.min (requests - 1, requests * p / 100)] : 0;
+		}
+
+		long mean ()
+		{
+			long sum;
+
+			sum = 0;
+			for (int i = 0; i < requests; i++)
+				sum += latencies [i];
+
+			return requests > 0 ? sum / requests : 0;
+		}
+	}
+
+	static int [] trace (int days)
+	{
+		int pages, ans [], i, n;
+
+		pages = (days + PAGE_SIZE - 1) / PAGE_SIZE;
+		ans = new int [2 * pages - 1];
+		n = 0;
+		for (i = pages - 1; i >= 0; i--)
+			ans [n++] = i * PAGE_SIZE;
+		for (i = 1; i < pages; i++)
+			ans [n++] = i * PAGE_SIZE;
+
+		return ans;
+	}
+
+	static Result run (int trace [], int prefetch, int think, int queryMs, int pageMs)
+	{
+		Set<Integer> cached, loading;
+		Map<Integer, Long> ready;
+		List<Interval> range;
+		Interval interval;
+		int i, direction, last;
+		long t, done;
+		Result ans;
+		Long r;
+
+		ans = new Result (trace.length);
+		ready = new HashMap<Integer, Long> ();
+		cached = new HashSet<Integer> ();
+		loading = new HashSet<Integer> ();
+		last = 0;
+		for (i = 0; i < trace.length; i++) {
+			t = (long) i * think;
+			interval = new Interval (trace [i], trace [i] + PAGE_SIZE - 1);
+			direction = interval.start < last ? -1 : 1;
+			last = interval.start;
+
+			cached.clear ();
+			loading.clear ();
+			for (Map.Entry<Integer, Long> e : ready.entrySet ())
+				(e.getValue () <= t ? cached : loading).add (e.getKey ());
+
+			if (cached.contains (interval.start))
+				ans.hits++;
+
+			range = HistoryDatabaseCache.getRange (interval, direction, prefetch, cached, loading);
+			if (!range.isEmpty ()) {
+				ans.queries++;
+				done = t + queryMs + pageMs * range.size ();
+				for (Interval p : range)
+					ready.put (p.start, done);
+			}
+
+			r = ready.get (interval.start);
+			ans.latencies [ans.requests++] = Math.max (0, r - t);
+		}
+
+		return ans;
+	}
+
+	public static void main (String args [])
+	{
+		int queryMs, pageMs, days, trace [];
+		Result res;
+
+		queryMs = args.length > 0 ? Integer.parseInt (args [0]) : 40;
+		pageMs = args.length > 1 ? Integer.parseInt (args [1]) : 10;
+		days = args.length > 2 ? Integer.parseInt (args [2]) : 720;
+
+		trace = trace (days);
+		System.out.println ("query " + queryMs + " ms + " + pageMs + " ms/page, " +
+							trace.length + " page requests");
+		System.out.println ("prefetch  think(ms)  hits  queries  mean(ms)  p95(ms)  max(ms)");
+		for (int prefetch : new int [] { 0, 1, HistoryDatabaseCache.PREFETCH_PAGES, 4 }) {
+			for (int think : THINK_TIMES) {
+				res = run (trace, prefetch, think, queryMs, pageMs);
+				System.out.println (String.format ("%8d  %9d  %4d  %7d  %8d  %7d  %7d",
+						prefetch, think, res.hits, res.queries,
+						res.mean (), res.percentile (95), res.percentile (100)));
+			}
+		}
+	}
+}
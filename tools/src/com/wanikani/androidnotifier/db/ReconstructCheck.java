@@ -0,0 +1,148 @@
+package com.wanikani.androidnotifier.db;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Checks the per-day delta reconstruction against the SQL it replaced.
+ * The old code copied the missing days into a temporary table and, for
+ * each item, ran
+ *   UPDATE ... SET unlocked = unlocked + 1 WHERE day >= ?
+ * or, for burned items,
+ *   UPDATE ... SET unlocked = unlocked + 1 WHERE day BETWEEN ? AND ?
+ *   UPDATE ... SET burned = burned + 1 WHERE day >= ?
+ * The reference below applies the same updates to the same sparse set of
+ * days, and HistoryDatabase.ReconstructTable.Counters must produce the
+ * same rows.
+ * Unlock and burn days are drawn around and outside the missing days,
+ * so that the clamping at the edges is exercised too.
+ * Depends on: src/com/wanikani/androidnotifier/db/HistoryDatabase.java
+ * Usage: ReconstructCheck [runs [seed]]
+ */
+public class ReconstructCheck {
+
+	static int failures;
+
+	static void check (boolean cond, String msg)
+	{
+		if (!cond) {
+			System.out.println ("FAIL: " + msg);
+			failures++;
+		}
+	}
+
+	static class Reference {
+
+		int days [];
+
+		int rows [][];
+
+		Reference (int days [])
+		{
+			this.days = days;
+
+			rows = new int [days.length][6];
+		}
+
+		/* UPDATE ... SET col = col + 1 WHERE day >= from */
+		void above (int col, int from)
+		{
+			for (int i = 0; i < days.length; i++)
+				if (days [i] >= from)
+					rows [i][col]++;
+		}
+
+		/* UPDATE ... SET col = col + 1 WHERE day BETWEEN from AND to */
+		void between (int col, int from, int to)
+		{
+			for (int i = 0; i < days.length; i++)
+				if (days [i] >= from && days [i] <= to)
+					rows [i][col]++;
+		}
+	}
+
+	static int [] missingDays (Random rnd, int span)
+	{
+		int days [], i, n;
+
+		/* Sparse: partial or missing data is scattered along the history */
+		days = new int [span];
+		n = 0;
+		for (i = 0; i < span; i++)
+			if (rnd.nextInt (3) > 0)
+				days [n++] = 10 + i;
+
+		return Arrays.copyOf (days, n);
+	}
+
+	static void run (Random rnd)
+	{
+		HistoryDatabase.ReconstructTable.Counters counters;
+		int days [], rows [][];
+		int i, items, type, span, from, to;
+		Reference ref;
+
+		span = rnd.nextInt (400);
+		days = missingDays (rnd, span);
+
+		counters = new HistoryDatabase.ReconstructTable.Counters (days);
+		ref = new Reference (days);
+
+		items = rnd.nextInt (2000);
+		for (i = 0; i < items; i++) {
+			type = rnd.nextInt (3);
+			from = rnd.nextInt (span + 40);
+			if (rnd.nextBoolean ()) {
+				to = from + rnd.nextInt (span + 40);
+				counters.burned (type, from, to);
+				ref.between (2 * type, from, to);
+				ref.above (2 * type + 1, to);
+			} else {
+				counters.unlocked (type, from);
+				ref.above (2 * type, from);
+			}
+		}
+
+		rows = counters.getRows ();
+		check (rows.length == days.length, rows.length + " rows for " + days.length + " days");
+		for (i = 0; i < days.length && i < rows.length; i++)
+			check (Arrays.equals (rows [i], ref.rows [i]),
+				   "day " + days [i] + ": " + Arrays.toString (rows [i]) +
+				   ", expected " + Arrays.toString (ref.rows [i]));
+	}
+
+	public static void main (String args [])
+	{
+		Random rnd;
+		int i, runs;
+		long seed;
+
+		runs = args.length > 0 ? Integer.parseInt (args [0]) : 200;
+		seed = args.length > 1 ? Long.parseLong (args [1]) : 1;
+
+		rnd = new Random (seed);
+		for (i = 0; i < runs && failures < 10; i++)
+			run (rnd);
+
+		System.out.println (failures == 0 ? "OK: " + runs + " runs, seed " + seed :
+							failures + " failures");
+		System.exit (failures == 0 ? 0 : 1);
+	}
+}
@@ -0,0 +1,203 @@
+package com.wanikani.androidnotifier.db;
+
+import java.util.Date;
+import java.util.Random;
+
+import com.wanikani.wklib.Item;
+import com.wanikani.wklib.ItemLibrary;
+import com.wanikani.wklib.ItemsCacheInterface;
+import com.wanikani.wklib.Kanji;
+import com.wanikani.wklib.Radical;
+import com.wanikani.wklib.SRSLevel;
+import com.wanikani.wklib.Vocabulary;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * A synthetic account for the database tools, with about as many items
+ * per level as the real thing. Radical meanings come hyphenated, as they
+ * do from the API, and go through the same fixup.
+ * Not a tool by itself: compile it together with the tools that need it.
+ */
+class SyntheticAccount {
+
+	static final int RADICALS_PER_LEVEL = 8;
+
+	static final int KANJI_PER_LEVEL = 32;
+
+	static final int VOCAB_PER_LEVEL = 100;
+
+	int levels;
+
+	Random rnd;
+
+	ItemLibrary<Radical> radicals;
+
+	ItemLibrary<Kanji> kanji;
+
+	ItemLibrary<Vocabulary> vocab;
+
+	public SyntheticAccount (int levels, long seed)
+	{
+		Radical r;
+		Kanji k;
+		Vocabulary v;
+		int i, j;
+
+		this.levels = levels;
+
+		rnd = new Random (seed);
+		radicals = new ItemLibrary<Radical> ();
+		kanji = new ItemLibrary<Kanji> ();
+		vocab = new ItemLibrary<Vocabulary> ();
+		for (i = 1; i <= levels; i++) {
+			for (j = 0; j < RADICALS_PER_LEVEL; j++) {
+				r = new Radical ();
+				/* Some radicals have no character, only an image */
+				if (j % 4 != 3)
+					r.character = "部" + i + "-" + j;
+				else
+					r.image = "https://example.com/radicals/" + i + "-" + j + ".png";
+				r.meaning = "radical-" + i + "-" + j;
+				fill (r, i);
+				r.fixup ();
+				radicals.add (r);
+			}
+			for (j = 0; j < KANJI_PER_LEVEL; j++) {
+				k = new Kanji ();
+				k.character = "漢" + i + "-" + j;
+				k.meaning = "kanji " + i + " " + j;
+				k.onyomi = "かん";
+				k.kunyomi = j % 3 == 0 ? null : "あざ";
+				k.importantReading = j % 2 == 0 ? Kanji.Reading.ONYOMI : Kanji.Reading.KUNYOMI;
+				fill (k, i);
+				kanji.add (k);
+			}
+			for (j = 0; j < VOCAB_PER_LEVEL; j++) {
+				v = new Vocabulary ();
+				v.character = "語彙" + i + "-" + j;
+				v.meaning = "vocabulary " + i + " " + j;
+				v.kana = "ごい" + j;
+				fill (v, i);
+				vocab.add (v);
+			}
+		}
+	}
+
+	private Item.Performance performance ()
+	{
+		Item.Performance ans;
+
+		ans = new Item.Performance ();
+		ans.correct = rnd.nextInt (20);
+		ans.incorrect = rnd.nextInt (5);
+		ans.maxStreak = rnd.nextInt (10);
+		ans.currentStreak = rnd.nextInt (10);
+
+		return ans;
+	}
+
+	private void fill (Item item, int level)
+	{
+		Item.Stats stats;
+		long unlock;
+
+		item.level = level;
+
+		/* Items of the last level are locked */
+		if (level == levels)
+			return;
+
+		unlock = 1370000000000L + level * 7 * 24 * 3600 * 1000L;
+		stats = new Item.Stats ();
+		stats.srs = SRSLevel.fromOrdinal (Math.min (4, (levels - level) / 8));
+		stats.burned = stats.srs == SRSLevel.BURNED;
+		stats.availableDate = new Date (unlock + rnd.nextInt (1000) * 3600 * 1000L);
+		stats.burnedDate = stats.burned ? new Date (unlock + 200 * 24 * 3600 * 1000L) : null;
+		stats.reading = item.type != Item.Type.RADICAL ? performance () : null;
+		stats.meaning = performance ();
+		stats.meaningNote = rnd.nextInt (50) == 0 ? "a note" : null;
+		stats.userSynonyms = rnd.nextInt (50) == 0 ? new String [] { "one", "two" } : null;
+		item.setStats (stats);
+		item.setUnlockedDate (new Date (unlock));
+	}
+
+	/*
+	 * What a review session does to the account: a few items
+	 * get their counters and availability updated.
+	 */
+	public int review (int count)
+	{
+		Item item;
+		int i, n;
+
+		n = 0;
+		for (i = 0; i < count; i++) {
+			switch (rnd.nextInt (3)) {
+			case 0:
+				item = radicals.list.get (rnd.nextInt (radicals.list.size ()));
+				break;
+
+			case 1:
+				item = kanji.list.get (rnd.nextInt (kanji.list.size ()));
+				break;
+
+			default:
+				item = vocab.list.get (rnd.nextInt (vocab.list.size ()));
+			}
+			if (item.stats == null)
+				continue;
+			item.stats.meaning.correct++;
+			item.stats.meaning.currentStreak++;
+			item.stats.availableDate = new Date (item.stats.availableDate.getTime () + 24 * 3600 * 1000L);
+			n++;
+		}
+
+		return n;
+	}
+
+	public int [] getLevels ()
+	{
+		int ans [];
+		int i;
+
+		ans = new int [levels];
+		for (i = 0; i < levels; i++)
+			ans [i] = i + 1;
+
+		return ans;
+	}
+
+	public int size ()
+	{
+		return radicals.list.size () + kanji.list.size () + vocab.list.size ();
+	}
+
+	/* Stores the whole account, one refresh for each type */
+	public void store (ItemsDatabase idb)
+	{
+		idb.<Radical>getTable (Item.Type.RADICAL).put (data (radicals));
+		idb.<Kanji>getTable (Item.Type.KANJI).put (data (kanji));
+		idb.<Vocabulary>getTable (Item.Type.VOCABULARY).put (data (vocab));
+	}
+
+	static<T extends Item> ItemsCacheInterface.LevelData<T> data (ItemLibrary<T> lib)
+	{
+		return new ItemsCacheInterface.LevelData<T> (new Date (), null, lib);
+	}
+}
@@ -0,0 +1,83 @@
+package com.wanikani.androidnotifier.db;
+
+import java.io.File;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.database.DatabaseErrorHandler;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDatabase.CursorFactory;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * The bare minimum of a Context needed by the database classes, for the
+ * tools that run on a device through app_process, outside of any app.
+ * Databases are created in a directory of our choice.
+ * Not a tool by itself: compile it together with the tools that need it.
+ */
+class ToolContext extends ContextWrapper {
+
+	File dir;
+
+	public ToolContext (File dir)
+	{
+		super (null);
+
+		this.dir = dir;
+		dir.mkdirs ();
+	}
+
+	@Override
+	public Context getApplicationContext ()
+	{
+		return this;
+	}
+
+	@Override
+	public File getDatabasePath (String name)
+	{
+		return new File (dir, name);
+	}
+
+	@Override
+	public SQLiteDatabase openOrCreateDatabase (String name, int mode, CursorFactory factory)
+	{
+		return SQLiteDatabase.openOrCreateDatabase (getDatabasePath (name), factory);
+	}
+
+	@Override
+	public SQLiteDatabase openOrCreateDatabase (String name, int mode, CursorFactory factory,
+												DatabaseErrorHandler handler)
+	{
+		return SQLiteDatabase.openOrCreateDatabase (getDatabasePath (name).getPath (), factory, handler);
+	}
+
+	@Override
+	public boolean deleteDatabase (String name)
+	{
+		File file;
+
+		file = getDatabasePath (name);
+		new File (file.getPath () + "-journal").delete ();
+		new File (file.getPath () + "-wal").delete ();
+		new File (file.getPath () + "-shm").delete ();
+
+		return file.delete ();
+	}
+}
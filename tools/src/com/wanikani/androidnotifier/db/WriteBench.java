@@ -0,0 +1,238 @@
+package com.wanikani.androidnotifier.db;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.wanikani.wklib.Item;
+import com.wanikani.wklib.ItemLibrary;
+import com.wanikani.wklib.ItemsCacheInterface.LevelData;
+import com.wanikani.wklib.Radical;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Write amplification of the items database: rows written per refresh
+ * by ItemsTable.put, which only rewrites the items that changed, against
+ * the delete-and-insert of the baseline. Starting from a stored synthetic
+ * account, each path goes through:
+ * - unchanged: the whole account is put again, as it was
+ * - review: the whole account is put again after a review session
+ *   touched a few items
+ * - re-put: the radicals are read back from the database and put again,
+ *   as done when the API answers 304
+ * Rows written are the rows inserted (or replaced) plus the rows deleted.
+ * Since ids are AUTOINCREMENT, they are told apart from the rows left
+ * alone by comparing ids with the largest one before the refresh.
+ * Inventory rows are the same for both paths and not counted.
+ * Must run on a device (or emulator), since it needs the real SQLite.
+ * Depends on: src/com/wanikani/wklib/*.java,
+ *   src/com/wanikani/androidnotifier/db/ItemsDatabase.java,
+ *   tools/src/com/wanikani/androidnotifier/db/ToolContext.java,
+ *   tools/src/com/wanikani/androidnotifier/db/SyntheticAccount.java
+ * Usage: WriteBench [dir [levels [reviews]]]
+ */
+public class WriteBench {
+
+	interface Writer {
+
+		public <T extends Item> void put (ItemsDatabase.ItemsTable<T> table, LevelData<T> data);
+
+	}
+
+	/* The current put */
+	static class Put implements Writer {
+
+		public <T extends Item> void put (ItemsDatabase.ItemsTable<T> table, LevelData<T> data)
+		{
+			table.put (data);
+		}
+	}
+
+	/* The put of the baseline: delete the levels, insert everything */
+	static class DeleteInsert implements Writer {
+
+		public <T extends Item> void put (ItemsDatabase.ItemsTable<T> table, LevelData<T> data)
+		{
+			SQLiteStatement stmt;
+			Set<Integer> levels;
+			StringBuffer sb;
+
+			levels = new HashSet<Integer> ();
+			for (T item : data.lib.list)
+				levels.add (item.level);
+			sb = new StringBuffer ();
+			for (Integer level : levels)
+				sb.append (sb.length () > 0 ? "," : "").append (level);
+
+			stmt = null;
+			db.beginTransaction ();
+			try {
+				db.delete (table.getTable (), "level IN (" + sb + ")", null);
+				stmt = db.compileStatement (table.getInsertStatement ());
+				for (T item : data.lib.list) {
+					table.fillStatement (stmt, item);
+					stmt.executeInsert ();
+				}
+				db.setTransactionSuccessful ();
+			} finally {
+				if (stmt != null)
+					stmt.close ();
+				db.endTransaction ();
+			}
+		}
+	}
+
+	static final String TABLES [] = { "radicals", "kanji", "vocab" };
+
+	static ItemsDatabase idb;
+
+	static SQLiteDatabase db;
+
+	static SyntheticAccount account;
+
+	static long query (String sql)
+	{
+		Cursor c;
+
+		c = db.rawQuery (sql, null);
+		try {
+			return c.moveToFirst () && !c.isNull (0) ? c.getLong (0) : 0;
+		} finally {
+			c.close ();
+		}
+	}
+
+	/* For each table, the largest id and the number of rows */
+	static long [] mark ()
+	{
+		long ans [];
+		int i;
+
+		ans = new long [TABLES.length * 2];
+		for (i = 0; i < TABLES.length; i++) {
+			ans [2 * i] = query ("SELECT MAX(_id) FROM " + TABLES [i]);
+			ans [2 * i + 1] = query ("SELECT COUNT(*) FROM " + TABLES [i]);
+		}
+
+		return ans;
+	}
+
+	static long written (long mark [])
+	{
+		long ans, kept;
+		int i;
+
+		ans = 0;
+		for (i = 0; i < TABLES.length; i++) {
+			kept = query ("SELECT COUNT(*) FROM " + TABLES [i] + " WHERE _id <= " + mark [2 * i]);
+			ans += mark [2 * i + 1] - kept;
+			ans += query ("SELECT COUNT(*) FROM " + TABLES [i] + " WHERE _id > " + mark [2 * i]);
+		}
+
+		return ans;
+	}
+
+	static void refresh (Writer w)
+	{
+		w.put (idb.<Radical>getTable (Item.Type.RADICAL), SyntheticAccount.data (account.radicals));
+		w.put (idb.getTable (Item.Type.KANJI), SyntheticAccount.data (account.kanji));
+		w.put (idb.getTable (Item.Type.VOCABULARY), SyntheticAccount.data (account.vocab));
+	}
+
+	static void reput (Writer w)
+	{
+		Map<Integer, LevelData<Radical>> data;
+		ItemsDatabase.ItemsTable<Radical> table;
+		ItemLibrary<Radical> lib;
+
+		table = idb.getTable (Item.Type.RADICAL);
+		data = LevelData.createMap (account.getLevels ());
+		table.get (data);
+		lib = new ItemLibrary<Radical> ();
+		for (LevelData<Radical> ld : data.values ())
+			if (ld.lib != null)
+				lib.add (ld.lib);
+
+		w.put (table, SyntheticAccount.data (lib));
+	}
+
+	static void report (String name, long mark [], long start)
+	{
+		long time;
+
+		time = (System.nanoTime () - start) / 1000000;
+		System.out.println (String.format ("%-20s  %8d  %8d", name, written (mark), time));
+	}
+
+	static void run (String name, Writer w, ToolContext ctxt, int levels, int reviews)
+	{
+		long mark [], start;
+		int touched;
+
+		/* Same account, same reviews for both paths */
+		account = new SyntheticAccount (levels, 1);
+		ctxt.deleteDatabase ("items.db");
+		idb = new ItemsDatabase (ctxt);
+		account.store (idb);
+
+		db = SQLiteDatabase.openOrCreateDatabase (ctxt.getDatabasePath ("items.db"), null);
+		try {
+			System.out.println (name + ":");
+
+			mark = mark ();
+			start = System.nanoTime ();
+			refresh (w);
+			report ("  unchanged", mark, start);
+
+			touched = account.review (reviews);
+			mark = mark ();
+			start = System.nanoTime ();
+			refresh (w);
+			report ("  review (" + touched + ")", mark, start);
+
+			mark = mark ();
+			start = System.nanoTime ();
+			reput (w);
+			report ("  re-put", mark, start);
+		} finally {
+			db.close ();
+		}
+	}
+
+	public static void main (String args [])
+		throws Exception
+	{
+		int levels, reviews;
+		ToolContext ctxt;
+
+		ctxt = new ToolContext (new File (args.length > 0 ? args [0] : "/data/local/tmp/writebench"));
+		levels = args.length > 1 ? Integer.parseInt (args [1]) : 60;
+		reviews = args.length > 2 ? Integer.parseInt (args [2]) : 100;
+
+		System.out.println (new SyntheticAccount (levels, 1).size () + " items, " + levels + " levels");
+		System.out.println ("refresh                written  time(ms)");
+		run ("delete+insert", new DeleteInsert (), ctxt, levels, reviews);
+		run ("put", new Put (), ctxt, levels, reviews);
+	}
+}
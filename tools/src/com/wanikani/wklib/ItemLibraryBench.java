@@ -0,0 +1,251 @@
+package com.wanikani.wklib;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * ItemLibrary build and merge costs, against the Vector-backed library
+ * it replaced. On a full account (8400 items over 60 levels):
+ * - build: deserializing a JSONArray into a library
+ * - merge: joining the per-level libraries of the items cache into one,
+ *   as done when levels are served from the cache
+ * - split: grouping a multi-level library into per-level libraries,
+ *   as done by the items caches on put
+ * For each we report the median and minimum time, and the bytes
+ * allocated per run, excluding the items themselves.
+ * Depends on: src/com/wanikani/wklib/*.java, tools/shims,
+ *   tools/src/com/wanikani/wklib/StreamBench.java
+ * Usage: ItemLibraryBench [items [runs]]
+ */
+public class ItemLibraryBench {
+
+	/* The baseline ItemLibrary */
+	static class VectorLibrary<T extends Item> {
+
+		List<T> list;
+
+		public VectorLibrary (Item.Factory<T> f, JSONArray array)
+			throws Exception
+		{
+			int i;
+
+			list = new Vector<T> (array.length ());
+			for (i = 0; i < array.length (); i++)
+				list.add (f.deserialize (array.getJSONObject (i)));
+		}
+
+		public VectorLibrary ()
+		{
+			list = new Vector<T> ();
+		}
+
+		public VectorLibrary<T> add (VectorLibrary<? extends T> lib)
+		{
+			list.addAll (lib.list);
+
+			return this;
+		}
+
+		public VectorLibrary<T> add (T item)
+		{
+			list.add (item);
+
+			return this;
+		}
+	}
+
+	interface Op {
+
+		public Object run ()
+			throws Exception;
+
+	}
+
+	static JSONArray array;
+
+	static List<ItemLibrary<Vocabulary>> levels;
+
+	static List<VectorLibrary<Vocabulary>> vlevels;
+
+	static ItemLibrary<Vocabulary> all;
+
+	static VectorLibrary<Vocabulary> vall;
+
+	static long allocated ()
+	{
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean ()).
+					getThreadAllocatedBytes (Thread.currentThread ().getId ());
+	}
+
+	static void measure (String name, Op op, int runs, long itemBytes)
+		throws Exception
+	{
+		long times [], bytes, start;
+		int i;
+
+		/* Warm up */
+		for (i = 0; i < runs; i++)
+			op.run ();
+
+		times = new long [runs];
+		bytes = allocated ();
+		for (i = 0; i < runs; i++) {
+			start = System.nanoTime ();
+			op.run ();
+			times [i] = (System.nanoTime () - start) / 1000;
+		}
+		bytes = (allocated () - bytes) / runs - itemBytes;
+		Arrays.sort (times);
+
+		System.out.println (String.format ("%-14s  %10d  %8d  %10d", name, times [runs / 2],
+										   times [0], bytes / 1024));
+	}
+
+	public static void main (String args [])
+		throws Exception
+	{
+		final Map<Integer, ItemLibrary<Vocabulary>> split;
+		final Map<Integer, VectorLibrary<Vocabulary>> vsplit;
+		int items, runs, i, j;
+		long itemBytes;
+
+		items = args.length > 0 ? Integer.parseInt (args [0]) : 8400;
+		runs = args.length > 1 ? Integer.parseInt (args [1]) : 200;
+
+		array = new JSONObject (new JSONTokener (new String (StreamBench.synthesize (items, 1), "UTF-8"))).
+					getJSONArray ("requested_information");
+
+		all = new ItemLibrary<Vocabulary> (Vocabulary.FACTORY, array);
+		vall = new VectorLibrary<Vocabulary> (Vocabulary.FACTORY, array);
+		split = new HashMap<Integer, ItemLibrary<Vocabulary>> ();
+		vsplit = new HashMap<Integer, VectorLibrary<Vocabulary>> ();
+		for (Vocabulary v : all.list) {
+			if (!split.containsKey (v.level)) {
+				split.put (v.level, new ItemLibrary<Vocabulary> ());
+				vsplit.put (v.level, new VectorLibrary<Vocabulary> ());
+			}
+			split.get (v.level).add (v);
+			vsplit.get (v.level).add (v);
+		}
+		levels = new ArrayList<ItemLibrary<Vocabulary>> (split.values ());
+		vlevels = new ArrayList<VectorLibrary<Vocabulary>> (vsplit.values ());
+
+		/* What deserializing the items alone costs, so that build only shows the container */
+		for (j = 0; j < runs; j++)
+			for (i = 0; i < array.length (); i++)
+				Vocabulary.FACTORY.deserialize (array.getJSONObject (i));
+		itemBytes = allocated ();
+		for (i = 0; i < array.length (); i++)
+			Vocabulary.FACTORY.deserialize (array.getJSONObject (i));
+		itemBytes = allocated () - itemBytes;
+
+		System.out.println (items + " items, " + levels.size () + " levels, " + runs + " runs");
+		System.out.println ("op              median(us)  min(us)  alloc(KB)");
+
+		measure ("build vector", new Op () {
+			public Object run () throws Exception
+			{
+				return new VectorLibrary<Vocabulary> (Vocabulary.FACTORY, array);
+			}
+		}, runs, itemBytes);
+
+		measure ("build array", new Op () {
+			public Object run () throws Exception
+			{
+				return new ItemLibrary<Vocabulary> (Vocabulary.FACTORY, array);
+			}
+		}, runs, itemBytes);
+
+		measure ("merge vector", new Op () {
+			public Object run ()
+			{
+				VectorLibrary<Vocabulary> lib;
+
+				lib = new VectorLibrary<Vocabulary> ();
+				for (VectorLibrary<Vocabulary> l : vlevels)
+					lib.add (l);
+
+				return lib;
+			}
+		}, runs, 0);
+
+		measure ("merge array", new Op () {
+			public Object run ()
+			{
+				ItemLibrary<Vocabulary> lib;
+
+				lib = new ItemLibrary<Vocabulary> ();
+				for (ItemLibrary<Vocabulary> l : levels)
+					lib.add (l);
+
+				return lib;
+			}
+		}, runs, 0);
+
+		measure ("split vector", new Op () {
+			public Object run ()
+			{
+				Map<Integer, VectorLibrary<Vocabulary>> map;
+				VectorLibrary<Vocabulary> lib;
+
+				map = new HashMap<Integer, VectorLibrary<Vocabulary>> ();
+				for (Vocabulary v : vall.list) {
+					lib = map.get (v.level);
+					if (lib == null) {
+						lib = new VectorLibrary<Vocabulary> ();
+						map.put (v.level, lib);
+					}
+					lib.add (v);
+				}
+
+				return map;
+			}
+		}, runs, 0);
+
+		measure ("split array", new Op () {
+			public Object run ()
+			{
+				Map<Integer, ItemLibrary<Vocabulary>> map;
+				ItemLibrary<Vocabulary> lib;
+
+				map = new HashMap<Integer, ItemLibrary<Vocabulary>> ();
+				for (Vocabulary v : all.list) {
+					lib = map.get (v.level);
+					if (lib == null) {
+						lib = new ItemLibrary<Vocabulary> ();
+						map.put (v.level, lib);
+					}
+					lib.add (v);
+				}
+
+				return map;
+			}
+		}, runs, 0);
+	}
+}
@@ -0,0 +1,173 @@
+package com.wanikani.wklib;
+
+import java.io.File;
+import java.io.InputStream;
+
+import android.os.Build;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Checks connection reuse and gzip negotiation against a local stand-in
+ * server. A few dashboard refreshes (study queue, SRS distribution and
+ * a level of kanji, through both the streaming and the DOM path) must:
+ * - all ask for gzip
+ * - go through at most one new TCP connection, unless keep-alive is disabled,
+ *   as Connection does before Froyo
+ * - report the decompressed body bytes as decoded, and less than that
+ *   as wire bytes
+ * The check runs once with the default API level and once, in a child
+ * JVM, pretending to be on Eclair, where each request needs a connection.
+ * Depends on: src/com/wanikani/wklib/*.java, tools/shims,
+ *   tools/src/com/wanikani/wklib/StandInServer.java
+ * Usage: KeepAliveCheck [refreshes]
+ */
+public class KeepAliveCheck {
+
+	static class Bytes implements Connection.Meter {
+
+		long wire;
+
+		long decoded;
+
+		public synchronized void count (int data)
+		{
+			wire += data;
+		}
+
+		public synchronized void decoded (int data)
+		{
+			decoded += data;
+		}
+
+		public void hit (int saved)
+		{
+			/* empty */
+		}
+
+		public void miss ()
+		{
+			/* empty */
+		}
+
+		public void sync ()
+		{
+			/* empty */
+		}
+	}
+
+	static int failures;
+
+	static void check (boolean cond, String msg)
+	{
+		if (!cond) {
+			System.out.println ("FAIL: " + msg);
+			failures++;
+		}
+	}
+
+	static void run (StandInServer server, int refreshes, boolean streaming)
+		throws Exception
+	{
+		Connection conn;
+		Config config;
+		Bytes meter;
+		long start;
+		int i;
+
+		server.reset ();
+		config = server.getConfig ();
+		config.streaming = streaming;
+		conn = new Connection (new UserLogin ("check"), config);
+		/* Every call must reach the server */
+		conn.responses = null;
+		meter = new Bytes ();
+
+		start = System.nanoTime ();
+		for (i = 0; i < refreshes; i++) {
+			conn.getStudyQueue (meter);
+			conn.getSRSDistribution (meter);
+			conn.getKanji (meter, i + 1);
+		}
+		start = (System.nanoTime () - start) / 1000000;
+
+		System.out.println (String.format ("sdk %2d, %-9s: %2d requests, %2d connections, " +
+										   "%6d decoded bytes, %6d wire bytes, %4d ms",
+										   Build.VERSION.SDK_INT, streaming ? "streaming" : "DOM",
+										   server.requests, server.connections,
+										   meter.decoded, meter.wire, start));
+
+		check (server.requests == 3 * refreshes, server.requests + " requests");
+		check (server.gzipped == server.requests, server.gzipped + " gzipped requests");
+		/* A later run may pick up the connection left in the pool by an earlier one */
+		if (Build.VERSION.SDK_INT >= 8)
+			check (server.connections <= 1, server.connections + " connections");
+		else
+			check (server.connections == server.requests, server.connections + " connections");
+		check (meter.decoded == server.plainBytes,
+			   meter.decoded + " decoded bytes, " + server.plainBytes + " served");
+		/* The wire count includes the headers too */
+		check (meter.wire >= server.wireBytes && meter.wire < meter.decoded,
+			   meter.wire + " wire bytes, " + server.wireBytes + " served");
+	}
+
+	static boolean child (String sdk, int refreshes)
+		throws Exception
+	{
+		ProcessBuilder pb;
+		InputStream is;
+		Process p;
+		int c;
+
+		pb = new ProcessBuilder (System.getProperty ("java.home") + File.separator + "bin" + File.separator + "java",
+								 "-Dsdk=" + sdk, "-cp", System.getProperty ("java.class.path"),
+								 KeepAliveCheck.class.getName (), Integer.toString (refreshes), "-child");
+		pb.redirectErrorStream (true);
+		p = pb.start ();
+		is = p.getInputStream ();
+		while ((c = is.read ()) >= 0)
+			System.out.write (c);
+		System.out.flush ();
+
+		return p.waitFor () == 0;
+	}
+
+	public static void main (String args [])
+		throws Exception
+	{
+		StandInServer server;
+		int refreshes;
+
+		refreshes = args.length > 0 ? Integer.parseInt (args [0]) : 5;
+
+		server = new StandInServer (0);
+		try {
+			run (server, refreshes, true);
+			run (server, refreshes, false);
+		} finally {
+			server.close ();
+		}
+
+		if (args.length < 2)
+			check (child ("7", refreshes), "no keep-alive run failed");
+
+		if (args.length < 2)
+			System.out.println (failures == 0 ? "OK" : failures + " failures");
+		System.exit (failures == 0 ? 0 : 1);
+	}
+}
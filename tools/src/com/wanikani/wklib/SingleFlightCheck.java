@@ -0,0 +1,267 @@
+package com.wanikani.wklib;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Stress check of SingleFlight: N threads issue the same call at the same
+ * time, and exactly one of them must reach the upstream. The others must
+ * get the result shared by the call, or the same exception.
+ * The same is then done through Connection.getKanji, against a local
+ * stand-in server: the threads must cause no more requests than a single
+ * caller does, whether they share a connection or each have their own
+ * (as the service and the activity do), and each of them must get its
+ * own list, since callers sort and extend them.
+ * Depends on: src/com/wanikani/wklib/*.java, tools/shims,
+ *   tools/src/com/wanikani/wklib/StandInServer.java
+ * Usage: SingleFlightCheck [threads [rounds]]
+ */
+public class SingleFlightCheck {
+
+	static class Upstream implements SingleFlight.Call<Object> {
+
+		AtomicInteger calls;
+
+		boolean fail;
+
+		public Upstream (boolean fail)
+		{
+			this.fail = fail;
+
+			calls = new AtomicInteger ();
+		}
+
+		public Object run ()
+			throws IOException
+		{
+			calls.incrementAndGet ();
+			try {
+				/* Long enough for all the threads to join the flight */
+				Thread.sleep (200);
+			} catch (InterruptedException e) {
+				throw new IOException ("Interrupted");
+			}
+			if (fail)
+				throw new IOException ("upstream failure");
+
+			return new Object ();
+		}
+
+		public Object share (Object result)
+		{
+			return result;
+		}
+	}
+
+	static class NullMeter implements Connection.Meter {
+
+		public void count (int data)
+		{
+			/* empty */
+		}
+
+		public void decoded (int data)
+		{
+			/* empty */
+		}
+
+		public void hit (int saved)
+		{
+			/* empty */
+		}
+
+		public void miss ()
+		{
+			/* empty */
+		}
+
+		public void sync ()
+		{
+			/* empty */
+		}
+	}
+
+	static final int LEVELS [] = { 1, 2, 3, 4, 5, 6, 7, 8 };
+
+	static int failures;
+
+	static void check (boolean cond, String msg)
+	{
+		if (!cond) {
+			System.out.println ("FAIL: " + msg);
+			failures++;
+		}
+	}
+
+	static void round (final SingleFlight sf, final Upstream up, int n)
+		throws InterruptedException
+	{
+		final CountDownLatch start, done;
+		final Object results [];
+		final Throwable errors [];
+		Thread threads [];
+		int i;
+
+		start = new CountDownLatch (1);
+		done = new CountDownLatch (n);
+		results = new Object [n];
+		errors = new Throwable [n];
+		threads = new Thread [n];
+		for (i = 0; i < n; i++) {
+			final int k = i;
+			threads [i] = new Thread () {
+				public void run ()
+				{
+					try {
+						start.await ();
+						results [k] = sf.run ("study-queue", up);
+					} catch (Throwable t) {
+						errors [k] = t;
+					} finally {
+						done.countDown ();
+					}
+				}
+			};
+			threads [i].start ();
+		}
+		start.countDown ();
+		done.await ();
+
+		check (up.calls.get () == 1, n + " callers made " + up.calls.get () + " upstream calls");
+		for (i = 0; i < n; i++) {
+			if (up.fail) {
+				check (errors [i] == errors [0] && errors [0] instanceof IOException,
+					   "caller " + i + " did not get the shared exception");
+			} else {
+				check (errors [i] == null, "caller " + i + " failed: " + errors [i]);
+				check (results [i] == results [0], "caller " + i + " got a different result");
+			}
+		}
+	}
+
+	static Connection connect (StandInServer server)
+	{
+		Connection conn;
+		Config config;
+
+		config = server.getConfig ();
+		config.shareFlights = true;
+		conn = new Connection (new UserLogin ("check"), config);
+		conn.responses = null;
+
+		return conn;
+	}
+
+	static void round (final StandInServer server, int n, boolean shared, int expected)
+		throws InterruptedException
+	{
+		final CountDownLatch start, done;
+		final Connection conns [];
+		final List<?> results [];
+		final Throwable errors [];
+		int i, j;
+
+		server.reset ();
+		start = new CountDownLatch (1);
+		done = new CountDownLatch (n);
+		results = new List<?> [n];
+		errors = new Throwable [n];
+		conns = new Connection [n];
+		for (i = 0; i < n; i++)
+			conns [i] = shared && i > 0 ? conns [0] : connect (server);
+		for (i = 0; i < n; i++) {
+			final int k = i;
+			new Thread () {
+				public void run ()
+				{
+					try {
+						start.await ();
+						results [k] = conns [k].getKanji (new NullMeter (), LEVELS).list;
+					} catch (Throwable t) {
+						errors [k] = t;
+					} finally {
+						done.countDown ();
+					}
+				}
+			}.start ();
+		}
+		start.countDown ();
+		done.await ();
+
+		check (server.hits ("kanji") == expected,
+			   n + " callers made " + server.hits ("kanji") + " kanji requests, instead of " + expected);
+		for (i = 0; i < n; i++) {
+			check (errors [i] == null, "caller " + i + " failed: " + errors [i]);
+			if (results [i] == null)
+				continue;
+			check (results [i].size () == LEVELS.length * StandInServer.ITEMS_PER_LEVEL,
+				   "caller " + i + " got " + results [i].size () + " items");
+			for (j = 0; j < i; j++)
+				check (results [i] != results [j], "callers " + j + " and " + i + " got the same list");
+		}
+	}
+
+	public static void main (String args [])
+		throws Exception
+	{
+		StandInServer server;
+		SingleFlight sf;
+		Upstream up;
+		int i, n, rounds, solo;
+
+		n = args.length > 0 ? Integer.parseInt (args [0]) : 32;
+		rounds = args.length > 1 ? Integer.parseInt (args [1]) : 10;
+
+		sf = new SingleFlight ();
+		for (i = 0; i < rounds; i++) {
+			round (sf, new Upstream (false), n);
+			round (sf, new Upstream (true), n);
+		}
+
+		/* Once a flight has landed, the next call must go upstream again */
+		up = new Upstream (false);
+		sf.run ("study-queue", up);
+		sf.run ("study-queue", up);
+		check (up.calls.get () == 2, "sequential calls were coalesced");
+
+		check (sf.flights.isEmpty (), "flights left behind: " + sf.flights.keySet ());
+
+		server = new StandInServer (200);
+		try {
+			/* Shards make more than one request even for a single caller */
+			connect (server).getKanji (new NullMeter (), LEVELS);
+			solo = server.hits ("kanji");
+			for (i = 0; i < rounds; i++) {
+				round (server, n, true, solo);
+				round (server, n, false, solo);
+			}
+		} finally {
+			server.close ();
+		}
+		check (SingleFlight.SHARED.flights.isEmpty (),
+			   "shared flights left behind: " + SingleFlight.SHARED.flights.keySet ());
+
+		System.out.println (failures == 0 ? "OK: " + n + " callers, " + rounds + " rounds" :
+							failures + " failures");
+		System.exit (failures == 0 ? 0 : 1);
+	}
+}
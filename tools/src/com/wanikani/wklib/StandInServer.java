@@ -0,0 +1,288 @@
+package com.wanikani.wklib;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * A local stand-in for the WaniKani API, for the tools that exercise
+ * Connection. It speaks just enough HTTP/1.1 to support keep-alive and
+ * gzip, and serves canned responses for the resources the app uses.
+ * It counts the TCP connections it accepts and the requests it serves,
+ * so tools can tell how many of them reached the "upstream".
+ * Not a tool by itself: compile it together with the tools that need it.
+ */
+class StandInServer implements Runnable {
+
+	static final int ITEMS_PER_LEVEL = 30;
+
+	ServerSocket ss;
+
+	/* Added to each response, to widen race windows */
+	int delay;
+
+	int connections;
+
+	int requests;
+
+	int gzipped;
+
+	/* Response bodies, before and after compression */
+	long plainBytes;
+
+	long wireBytes;
+
+	Map<String, Integer> hits;
+
+	public StandInServer (int delay)
+		throws IOException
+	{
+		this.delay = delay;
+
+		hits = new HashMap<String, Integer> ();
+		ss = new ServerSocket (0, 50, InetAddress.getByName ("127.0.0.1"));
+		new Thread (this, "stand-in").start ();
+	}
+
+	public Config getConfig ()
+	{
+		return new Config ("http://127.0.0.1:" + ss.getLocalPort (), "http://127.0.0.1:" + ss.getLocalPort ());
+	}
+
+	public synchronized int hits (String resource)
+	{
+		Integer ans;
+
+		ans = hits.get (resource);
+
+		return ans != null ? ans : 0;
+	}
+
+	public synchronized void reset ()
+	{
+		connections = requests = gzipped = 0;
+		plainBytes = wireBytes = 0;
+		hits.clear ();
+	}
+
+	public void close ()
+	{
+		try {
+			ss.close ();
+		} catch (IOException e) {
+			/* empty */
+		}
+	}
+
+	public void run ()
+	{
+		Socket s;
+
+		while (true) {
+			try {
+				s = ss.accept ();
+			} catch (IOException e) {
+				return;
+			}
+			serveAsync (s);
+		}
+	}
+
+	void serveAsync (final Socket s)
+	{
+		synchronized (this) {
+			connections++;
+		}
+		new Thread () {
+			public void run ()
+			{
+				serve (s);
+			}
+		}.start ();
+	}
+
+	void serve (Socket s)
+	{
+		Map<String, String> headers;
+		InputStream is;
+		OutputStream os;
+		String line, path;
+		boolean gzip;
+		byte body [];
+		int i;
+
+		try {
+			is = new BufferedInputStream (s.getInputStream ());
+			os = s.getOutputStream ();
+			while ((line = readLine (is)) != null) {
+				if (line.length () == 0)
+					continue;
+				path = line.split (" ") [1];
+				headers = new HashMap<String, String> ();
+				while ((line = readLine (is)) != null && line.length () > 0) {
+					i = line.indexOf (':');
+					if (i > 0)
+						headers.put (line.substring (0, i).trim ().toLowerCase (), line.substring (i + 1).trim ());
+				}
+				gzip = headers.containsKey ("accept-encoding") &&
+					   headers.get ("accept-encoding").contains ("gzip");
+				synchronized (this) {
+					requests++;
+					if (gzip)
+						gzipped++;
+				}
+				if (delay > 0)
+					Thread.sleep (delay);
+				body = respond (path).getBytes ("UTF-8");
+				synchronized (this) {
+					plainBytes += body.length;
+				}
+				if (gzip)
+					body = gzip (body);
+				synchronized (this) {
+					wireBytes += body.length;
+				}
+				os.write (("HTTP/1.1 200 OK\r\n" +
+						   "Content-Type: application/json; charset=utf-8\r\n" +
+						   (gzip ? "Content-Encoding: gzip\r\n" : "") +
+						   "Content-Length: " + body.length + "\r\n\r\n").getBytes ("US-ASCII"));
+				os.write (body);
+				os.flush ();
+			}
+		} catch (IOException e) {
+			/* Client went away */
+		} catch (InterruptedException e) {
+			/* empty */
+		} finally {
+			try {
+				s.close ();
+			} catch (IOException e) {
+				/* empty */
+			}
+		}
+	}
+
+	static String readLine (InputStream is)
+		throws IOException
+	{
+		StringBuilder sb;
+		int c;
+
+		sb = new StringBuilder ();
+		while ((c = is.read ()) >= 0) {
+			if (c == '\n')
+				return sb.toString ();
+			if (c != '\r')
+				sb.append ((char) c);
+		}
+
+		return sb.length () > 0 ? sb.toString () : null;
+	}
+
+	static byte [] gzip (byte data [])
+		throws IOException
+	{
+		ByteArrayOutputStream bos;
+		GZIPOutputStream gos;
+
+		bos = new ByteArrayOutputStream ();
+		gos = new GZIPOutputStream (bos);
+		gos.write (data);
+		gos.close ();
+
+		return bos.toByteArray ();
+	}
+
+	/* path is /user/<key>/<resource>[/<arg>] */
+	String respond (String path)
+	{
+		String comp [], resource, arg, info;
+
+		comp = path.split ("/");
+		resource = comp.length > 3 ? comp [3] : "";
+		arg = comp.length > 4 ? comp [4] : null;
+		synchronized (this) {
+			hits.put (resource, hits (resource) + 1);
+		}
+
+		if (resource.equals ("study-queue"))
+			info = "{\"lessons_available\":12,\"reviews_available\":34,\"next_review_date\":1370000000," +
+				   "\"reviews_available_next_hour\":5,\"reviews_available_next_day\":60}";
+		else if (resource.equals ("srs-distribution"))
+			info = "{\"apprentice\":" + srs (1) + ",\"guru\":" + srs (2) + ",\"master\":" + srs (3) +
+				   ",\"enlighten\":" + srs (4) + ",\"burned\":" + srs (5) + "}";
+		else if (resource.equals ("radicals") || resource.equals ("kanji") || resource.equals ("vocabulary"))
+			info = items (resource, arg);
+		else
+			info = "null";
+
+		return "{\"user_information\":{\"username\":\"standin\",\"gravatar\":\"0\",\"level\":20," +
+			   "\"title\":\"Turtles\",\"about\":\"\",\"website\":null,\"twitter\":null," +
+			   "\"topics_count\":0,\"posts_count\":0,\"creation_date\":1356998400," +
+			   "\"vacation_date\":null},\"requested_information\":" + info + "}";
+	}
+
+	static String srs (int n)
+	{
+		return "{\"radicals\":" + n + ",\"kanji\":" + 2 * n + ",\"vocabulary\":" + 3 * n + ",\"total\":" + 6 * n + "}";
+	}
+
+	static String items (String resource, String arg)
+	{
+		StringBuilder sb;
+		int i, level;
+
+		sb = new StringBuilder ("[");
+		for (String l : (arg != null ? arg : "1").split (",")) {
+			level = Integer.parseInt (l);
+			for (i = 0; i < ITEMS_PER_LEVEL; i++) {
+				if (sb.length () > 1)
+					sb.append (',');
+				sb.append ("{\"character\":\"字").append (level).append ('-').append (i).append ("\",");
+				sb.append ("\"meaning\":\"item-").append (level).append ('-').append (i).append ("\",");
+				sb.append ("\"level\":").append (level).append (',');
+				if (resource.equals ("kanji"))
+					sb.append ("\"onyomi\":\"じ\",\"kunyomi\":\"あざ\",\"important_reading\":\"onyomi\",");
+				else if (resource.equals ("vocabulary"))
+					sb.append ("\"kana\":\"じ\",");
+				else
+					sb.append ("\"image\":null,");
+				sb.append ("\"user_specific\":{\"srs\":\"guru\",\"srs_numeric\":5," +
+						   "\"unlocked_date\":1360000000,\"available_date\":1380000000," +
+						   "\"burned\":false,\"burned_date\":0," +
+						   "\"meaning_correct\":8,\"meaning_incorrect\":1," +
+						   "\"meaning_max_streak\":5,\"meaning_current_streak\":3," +
+						   "\"reading_correct\":7,\"reading_incorrect\":2," +
+						   "\"reading_max_streak\":4,\"reading_current_streak\":2," +
+						   "\"meaning_note\":null,\"reading_note\":null,\"user_synonyms\":null}}");
+			}
+		}
+
+		return sb.append (']').toString ();
+	}
+}
@@ -0,0 +1,256 @@
+package com.wanikani.wklib;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/*
+ *  Copyright (c) 2013 Alberto Cuda
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Streaming vs DOM decoding of an all-levels vocabulary response.
+ * The DOM path is the fallback of Connection.callItems: the body is read
+ * into a String, turned into a JSONObject and then into items. The
+ * streaming path hands the stream to StreamingParser.
+ * For each path we report the bytes allocated and the parse time, and
+ * the smallest heap (-Xmx) in which the fixture can be parsed at all,
+ * which is what matters on low-memory devices. The latter is found by
+ * bisection, parsing the fixture in a child JVM for each heap size.
+ * The fixture is a response saved from
+ *   <api>/user/<key>/vocabulary/1,2,...,<level>
+ * If none is given, one is synthesized.
+ * Depends on: src/com/wanikani/wklib/*.java, tools/shims
+ * Usage: StreamBench [fixture [runs]]
+ */
+public class StreamBench {
+
+	static final int SYNTH_ITEMS = 6000;
+
+	static final int SYNTH_LEVELS = 60;
+
+	static final String SRS [] = { "apprentice", "guru", "master", "enlighten", "burned" };
+
+	static final String PATHS [] = { "dom", "stream" };
+
+	static int parse (String path, byte fixture [])
+		throws Exception
+	{
+		Connection.Response res;
+		Connection conn;
+		InputStream is;
+		String body;
+
+		is = new ByteArrayInputStream (fixture);
+		if (path.equals ("stream"))
+			return new StreamingParser (is).parseItems (Vocabulary.FACTORY).list.size ();
+
+		/* Same as the fallback in Connection.streamItems */
+		conn = new Connection (new UserLogin ("bench"), new Config ());
+		body = Connection.readStream (is);
+		res = conn.new Response (new JSONObject (new JSONTokener (body)), true);
+
+		return new ItemLibrary<Vocabulary> (Vocabulary.FACTORY, res.infoAsArray).list.size ();
+	}
+
+	static long allocated ()
+	{
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean ()).
+					getThreadAllocatedBytes (Thread.currentThread ().getId ());
+	}
+
+	static String number (Random rnd, int max)
+	{
+		return Integer.toString (rnd.nextInt (max));
+	}
+
+	static byte [] synthesize (int items, long seed)
+		throws IOException
+	{
+		StringBuilder sb;
+		Random rnd;
+		int i, srs;
+		long t;
+
+		rnd = new Random (seed);
+		sb = new StringBuilder ();
+		sb.append ("{\"user_information\":{\"username\":\"bench\",\"gravatar\":\"0\"," +
+				   "\"level\":" + SYNTH_LEVELS + ",\"title\":\"Turtles\",\"about\":\"\"," +
+				   "\"website\":null,\"twitter\":null,\"topics_count\":0,\"posts_count\":0," +
+				   "\"creation_date\":1356998400,\"vacation_date\":null}," +
+				   "\"requested_information\":[");
+		t = 1370000000;
+		for (i = 0; i < items; i++) {
+			if (i > 0)
+				sb.append (',');
+			srs = rnd.nextInt (SRS.length);
+			sb.append ("{\"character\":\"語彙").append (i).append ("\",");
+			sb.append ("\"kana\":\"ごい").append (i).append ("\",");
+			sb.append ("\"meaning\":\"vocabulary word ").append (i).append (", synonym\",");
+			sb.append ("\"level\":").append (1 + i * SYNTH_LEVELS / items).append (',');
+			sb.append ("\"user_specific\":{\"srs\":\"").append (SRS [srs]).append ("\",");
+			sb.append ("\"srs_numeric\":").append (1 + 2 * srs).append (',');
+			sb.append ("\"unlocked_date\":").append (t + rnd.nextInt (30000000)).append (',');
+			sb.append ("\"available_date\":").append (t + 30000000 + rnd.nextInt (3000000)).append (',');
+			sb.append ("\"burned\":").append (srs == 4).append (',');
+			sb.append ("\"burned_date\":").append (srs == 4 ? t + 34000000 : 0).append (',');
+			sb.append ("\"meaning_correct\":").append (number (rnd, 20)).append (',');
+			sb.append ("\"meaning_incorrect\":").append (number (rnd, 5)).append (',');
+			sb.append ("\"meaning_max_streak\":").append (number (rnd, 10)).append (',');
+			sb.append ("\"meaning_current_streak\":").append (number (rnd, 10)).append (',');
+			sb.append ("\"reading_correct\":").append (number (rnd, 20)).append (',');
+			sb.append ("\"reading_incorrect\":").append (number (rnd, 5)).append (',');
+			sb.append ("\"reading_max_streak\":").append (number (rnd, 10)).append (',');
+			sb.append ("\"reading_current_streak\":").append (number (rnd, 10)).append (',');
+			sb.append ("\"meaning_note\":null,\"reading_note\":null,\"user_synonyms\":null}}");
+		}
+		sb.append ("]}");
+
+		return sb.toString ().getBytes ("UTF-8");
+	}
+
+	static byte [] load (File file)
+		throws IOException
+	{
+		InputStream is;
+		byte ans [];
+		int n, rd;
+
+		ans = new byte [(int) file.length ()];
+		is = new FileInputStream (file);
+		try {
+			n = 0;
+			while (n < ans.length && (rd = is.read (ans, n, ans.length - n)) > 0)
+				n += rd;
+		} finally {
+			is.close ();
+		}
+
+		return ans;
+	}
+
+	static boolean fits (File fixture, String path, int mb)
+		throws Exception
+	{
+		ProcessBuilder pb;
+		Process p;
+
+		pb = new ProcessBuilder (System.getProperty ("java.home") + File.separator + "bin" + File.separator + "java",
+								 "-Xmx" + mb + "m", "-XX:+UseSerialGC",
+								 "-cp", System.getProperty ("java.class.path"),
+								 StreamBench.class.getName (), "-child", fixture.getPath (), path);
+		pb.redirectErrorStream (true);
+		p = pb.start ();
+		while (p.getInputStream ().read () >= 0)
+			/* empty */;
+
+		return p.waitFor () == 0;
+	}
+
+	static int minHeap (File fixture, String path)
+		throws Exception
+	{
+		int lo, hi, mid;
+
+		/* lo never fits, hi always does */
+		lo = 1;
+		hi = 16;
+		while (!fits (fixture, path, hi)) {
+			lo = hi;
+			hi *= 2;
+			if (hi > 4096)
+				return -1;
+		}
+		while (hi - lo > 1) {
+			mid = (lo + hi) / 2;
+			if (fits (fixture, path, mid))
+				hi = mid;
+			else
+				lo = mid;
+		}
+
+		return hi;
+	}
+
+	public static void main (String args [])
+		throws Exception
+	{
+		long times [], bytes, start;
+		byte fixture [];
+		OutputStream os;
+		int i, runs, n;
+		File file;
+
+		if (args.length == 3 && args [0].equals ("-child")) {
+			try {
+				parse (args [2], load (new File (args [1])));
+				System.exit (0);
+			} catch (OutOfMemoryError e) {
+				System.exit (1);
+			}
+		}
+
+		runs = args.length > 1 ? Integer.parseInt (args [1]) : 10;
+		if (args.length > 0) {
+			file = new File (args [0]);
+			fixture = load (file);
+		} else {
+			fixture = synthesize (SYNTH_ITEMS, 1);
+			file = File.createTempFile ("vocabulary", ".json");
+			file.deleteOnExit ();
+			os = new FileOutputStream (file);
+			try {
+				os.write (fixture);
+			} finally {
+				os.close ();
+			}
+		}
+
+		System.out.println ("fixture: " + fixture.length / 1024 + " KB, " +
+							parse ("stream", fixture) + " items, " + runs + " runs");
+		System.out.println ("path     alloc(KB)  median(ms)  min(ms)  min heap(MB)");
+		for (String path : PATHS) {
+			/* Warm up */
+			for (i = 0; i < runs; i++)
+				parse (path, fixture);
+
+			times = new long [runs];
+			bytes = allocated ();
+			for (i = 0; i < runs; i++) {
+				start = System.nanoTime ();
+				n = parse (path, fixture);
+				times [i] = (System.nanoTime () - start) / 1000000;
+				if (n == 0)
+					throw new IllegalStateException ("no items");
+			}
+			bytes = (allocated () - bytes) / runs;
+			Arrays.sort (times);
+
+			System.out.println (String.format ("%-6s  %10d  %10d  %7d  %12d", path, bytes / 1024,
+											   times [runs / 2], times [0], minHeap (file, path)));
+		}
+	}
+}